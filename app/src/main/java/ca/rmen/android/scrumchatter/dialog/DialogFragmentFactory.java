@@ -67,10 +67,17 @@ public class DialogFragmentFactory extends DialogFragment {
      * Show a visible dialog fragment with the given title and message, and just one OK button.
      */
     public static void showInfoDialog(FragmentActivity activity, int titleId, int messageId) {
+        showInfoDialog(activity, activity.getString(titleId), activity.getString(messageId));
+    }
+
+    /**
+     * Show a visible dialog fragment with the given title and message, and just one OK button.
+     */
+    public static void showInfoDialog(FragmentActivity activity, String title, String message) {
         Log.v(TAG, "showInfoDialog");
         Bundle arguments = new Bundle(3);
-        arguments.putString(EXTRA_TITLE, activity.getString(titleId));
-        arguments.putString(EXTRA_MESSAGE, activity.getString(messageId));
+        arguments.putString(EXTRA_TITLE, title);
+        arguments.putString(EXTRA_MESSAGE, message);
         InfoDialogFragment result = new InfoDialogFragment();
         result.setArguments(arguments);
         result.show(activity.getSupportFragmentManager(), InfoDialogFragment.class.getSimpleName());
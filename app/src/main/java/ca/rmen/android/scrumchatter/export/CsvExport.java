@@ -0,0 +1,360 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
+import ca.rmen.android.scrumchatter.provider.MemberColumns;
+import ca.rmen.android.scrumchatter.provider.TeamColumns;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Export the speaking time of each member in each meeting, for scripts: one row per member per meeting, with the team, the
+ * meeting id, the meeting date (ISO 8601, in UTC), the member, and the duration in seconds.
+ *
+ * The rows are written from the cursor to the file as they are read, without allocating anything per row.
+ *
+ * The rows of all the teams are in one file, which may be compressed with gzip, or in a zip file with one file per team.
+ * The meetings of the teams which were deleted aren't exported.
+ */
+public class CsvExport extends FileExport {
+    private static final String TAG = Constants.TAG + "/" + CsvExport.class.getSimpleName();
+
+    public enum Format {
+        CSV(',', "csv", "text/csv"),
+        TSV('\t', "tsv", "text/tab-separated-values");
+
+        private final char mSeparator;
+        private final String mExtension;
+        private final String mMimeType;
+
+        Format(char separator, String extension, String mimeType) {
+            mSeparator = separator;
+            mExtension = extension;
+            mMimeType = mimeType;
+        }
+    }
+
+    private static final String FILE_NAME = "scrumchatter";
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String GZIP_MIME_TYPE = "application/gzip";
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String ZIP_MIME_TYPE = "application/zip";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String COLUMN_TEAM = "team";
+    private static final String COLUMN_MEETING = "meeting";
+    private static final String COLUMN_DATE = "date";
+    private static final String COLUMN_MEMBER = "member";
+    private static final String COLUMN_DURATION = "duration";
+
+    private final Format mFormat;
+    private final boolean mIsPerTeam;
+    private final boolean mIsCompressed;
+
+    // Reused for each row.
+    private final CharArrayBuffer mMemberName = new CharArrayBuffer(64);
+    private final char[] mNumber = new char[20];
+    private final char[] mDate = "0000-00-00T00:00:00Z".toCharArray();
+
+    private Writer mWriter;
+
+    /**
+     * @param isPerTeam    true for a zip file with one file per team, false for one file with all the teams.
+     * @param isCompressed true to compress the file with all the teams with gzip. The zip file is always compressed.
+     */
+    public CsvExport(Context context, Format format, boolean isPerTeam, boolean isCompressed) {
+        super(context, isPerTeam ? ZIP_MIME_TYPE : isCompressed ? GZIP_MIME_TYPE : format.mMimeType);
+        mFormat = format;
+        mIsPerTeam = isPerTeam;
+        mIsCompressed = isCompressed;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        return super.getCacheKey() + "/" + mFormat + "/" + mIsPerTeam + "/" + mIsCompressed;
+    }
+
+    /**
+     * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
+     */
+    @Override
+    protected File createFile() {
+        Log.v(TAG, "export " + mFormat + ": per team = " + mIsPerTeam + ", compressed = " + mIsCompressed);
+        String fileName = FILE_NAME + "." + mFormat.mExtension;
+        if (mIsPerTeam) fileName += ZIP_EXTENSION;
+        else if (mIsCompressed) fileName += GZIP_EXTENSION;
+        File file = Export.getExportFile(mContext, fileName);
+        if (file == null) return null;
+
+        Map<Long, String> teamNames = readTeamNames();
+        if (teamNames == null) return null;
+
+        Cursor c = mContext.getContentResolver().query(
+                MeetingMemberColumns.CONTENT_URI,
+                new String[]{
+                        MeetingColumns.TEAM_ID,
+                        MeetingMemberColumns.MEETING_ID,
+                        MeetingColumns.MEETING_DATE,
+                        MemberColumns.NAME,
+                        MeetingMemberColumns.DURATION},
+                MeetingMemberColumns.DURATION + ">0",
+                null,
+                MeetingColumns.TEAM_ID + ", "
+                        + MeetingColumns.MEETING_DATE + ", "
+                        + MeetingMemberColumns.MEETING_ID + ", "
+                        + MemberColumns.NAME);
+        if (c == null) return null;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            OutputStream outputStream = new FileOutputStream(file);
+            ZipOutputStream zipOutputStream = null;
+            if (mIsPerTeam) outputStream = zipOutputStream = new ZipOutputStream(outputStream);
+            else if (mIsCompressed) outputStream = new GZIPOutputStream(outputStream);
+            mWriter = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                if (zipOutputStream == null) writeHeader(true);
+                Set<String> entryNames = new HashSet<>();
+                Set<Long> exportedTeamIds = new HashSet<>();
+                long currentTeamId = -1;
+                char[] teamName = null;
+                while (c.moveToNext()) {
+                    long teamId = c.getLong(0);
+                    if (teamId != currentTeamId) {
+                        currentTeamId = teamId;
+                        String teamNameString = teamNames.get(teamId);
+                        teamName = teamNameString == null ? null : teamNameString.toCharArray();
+                        if (teamName != null && zipOutputStream != null) {
+                            // One file per team: start the file of the next team.
+                            exportedTeamIds.add(teamId);
+                            startEntry(zipOutputStream, teamNameString, entryNames);
+                        }
+                    }
+                    // Ignore the meetings of a team which doesn't exist anymore.
+                    if (teamName == null) continue;
+                    if (zipOutputStream == null) {
+                        writeText(teamName, teamName.length);
+                        mWriter.write(mFormat.mSeparator);
+                    }
+                    writeNumber(c.getLong(1));
+                    mWriter.write(mFormat.mSeparator);
+                    writeDate(c.getLong(2));
+                    mWriter.write(mFormat.mSeparator);
+                    c.copyStringToBuffer(3, mMemberName);
+                    writeText(mMemberName.data, mMemberName.sizeCopied);
+                    mWriter.write(mFormat.mSeparator);
+                    writeNumber(c.getLong(4));
+                    mWriter.write('\n');
+                }
+                if (zipOutputStream != null) {
+                    // The teams without any meeting have a file with only the header. There is at least one file: a zip
+                    // file without any file can't be written on older devices.
+                    for (Map.Entry<Long, String> team : teamNames.entrySet()) {
+                        if (!exportedTeamIds.contains(team.getKey())) startEntry(zipOutputStream, team.getValue(), entryNames);
+                    }
+                    if (entryNames.isEmpty()) startEntry(zipOutputStream, null, entryNames);
+                }
+            } finally {
+                // Closing the writer also finishes the zip or gzip stream.
+                mWriter.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        } finally {
+            c.close();
+        }
+        return file;
+    }
+
+    /**
+     * Start the file of the given team in the zip file, with the header.
+     */
+    private void startEntry(ZipOutputStream zipOutputStream, String teamName, Set<String> entryNames) throws IOException {
+        mWriter.flush();
+        zipOutputStream.putNextEntry(new ZipEntry(getUniqueEntryName(teamName, entryNames)));
+        writeHeader(false);
+    }
+
+    /**
+     * @return the name of each team id, ordered by id, or null if the teams couldn't be read.
+     */
+    private Map<Long, String> readTeamNames() {
+        Cursor c = mContext.getContentResolver().query(TeamColumns.CONTENT_URI, new String[]{TeamColumns._ID, TeamColumns.TEAM_NAME}, null, null, null);
+        if (c == null) return null;
+        Map<Long, String> teamNames = new TreeMap<>();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (c.moveToNext()) {
+                teamNames.put(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return teamNames;
+    }
+
+    /**
+     * @param withTeam true if the rows contain the team: if all the teams are in the same file.
+     */
+    private void writeHeader(boolean withTeam) throws IOException {
+        if (withTeam) {
+            mWriter.write(COLUMN_TEAM);
+            mWriter.write(mFormat.mSeparator);
+        }
+        mWriter.write(COLUMN_MEETING);
+        mWriter.write(mFormat.mSeparator);
+        mWriter.write(COLUMN_DATE);
+        mWriter.write(mFormat.mSeparator);
+        mWriter.write(COLUMN_MEMBER);
+        mWriter.write(mFormat.mSeparator);
+        mWriter.write(COLUMN_DURATION);
+        mWriter.write('\n');
+    }
+
+    /**
+     * @return the name of the file of the given team, in the zip file: the team name, without the characters which most file
+     * systems don't accept, and different from the names in entryNames, to which it's added.
+     */
+    private String getUniqueEntryName(String teamName, Set<String> entryNames) {
+        String baseName = teamName == null ? "" : teamName.replaceAll("[\\\\/:*?\"<>|\\x00-\\x1f]", "_").trim();
+        if (baseName.isEmpty()) baseName = FILE_NAME;
+        String entryName = baseName + "." + mFormat.mExtension;
+        for (int i = 2; !entryNames.add(entryName.toLowerCase(Locale.US)); i++) {
+            entryName = baseName + " (" + i + ")." + mFormat.mExtension;
+        }
+        return entryName;
+    }
+
+    /**
+     * Write the given text as a value. In csv, the value is quoted if it contains a separator, a quote, or a line break. In tsv,
+     * which has no quotes, the separators and line breaks are replaced with spaces.
+     */
+    private void writeText(char[] text, int length) throws IOException {
+        boolean isQuoted = false;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c == mFormat.mSeparator || c == '"' || c == '\n' || c == '\r') {
+                isQuoted = true;
+                break;
+            }
+        }
+        if (!isQuoted) {
+            mWriter.write(text, 0, length);
+        } else if (mFormat == Format.TSV) {
+            for (int i = 0; i < length; i++) {
+                char c = text[i];
+                mWriter.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+            }
+        } else {
+            mWriter.write('"');
+            for (int i = 0; i < length; i++) {
+                char c = text[i];
+                if (c == '"') mWriter.write('"');
+                mWriter.write(c);
+            }
+            mWriter.write('"');
+        }
+    }
+
+    /**
+     * Write the digits of the given number, without going through a String.
+     */
+    private void writeNumber(long number) throws IOException {
+        if (number < 0) {
+            mWriter.write('-');
+            number = -number;
+        }
+        int start = mNumber.length;
+        do {
+            mNumber[--start] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        mWriter.write(mNumber, start, mNumber.length - start);
+    }
+
+    /**
+     * Write the given date as yyyy-MM-ddTHH:mm:ssZ, in UTC, without going through a String.
+     *
+     * @param date the milliseconds since 1970-01-01, in UTC.
+     */
+    private void writeDate(long date) throws IOException {
+        long seconds = floorDiv(date, 1000);
+        long days = floorDiv(seconds, 86400);
+        int secondOfDay = (int) (seconds - days * 86400);
+
+        // The year, month, and day of the days since 1970-01-01, in the proleptic Gregorian calendar, in eras of 400 years,
+        // with years starting on March 1st.
+        long dayFromMarch0000 = days + 719468;
+        long era = floorDiv(dayFromMarch0000, 146097);
+        int dayOfEra = (int) (dayFromMarch0000 - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+
+        setDigits(0, (int) year, 4);
+        setDigits(5, month, 2);
+        setDigits(8, day, 2);
+        setDigits(11, secondOfDay / 3600, 2);
+        setDigits(14, secondOfDay / 60 % 60, 2);
+        setDigits(17, secondOfDay % 60, 2);
+        mWriter.write(mDate);
+    }
+
+    /**
+     * @return the quotient of the given numbers, rounded down, also for negative numbers. (Math.floorDiv needs API level 24.)
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private void setDigits(int position, int value, int digitCount) {
+        for (int i = position + digitCount - 1; i >= position; i--) {
+            mDate[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
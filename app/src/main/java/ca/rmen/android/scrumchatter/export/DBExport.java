@@ -22,6 +22,7 @@ import java.io.File;
 
 import android.content.Context;
 import ca.rmen.android.scrumchatter.provider.ScrumChatterDatabase;
+import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
 import ca.rmen.android.scrumchatter.util.IOUtils;
 
 /**
@@ -41,6 +42,8 @@ public class DBExport extends FileExport {
      */
     @Override
     protected File createFile() {
+        // Make sure the database file contains everything in the write-ahead log before copying it.
+        mContext.getContentResolver().call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_CHECKPOINT, null, null);
         File internalDBFile = mContext.getDatabasePath(ScrumChatterDatabase.DATABASE_NAME);
         File externalDBFile = Export.getExportFile(mContext, ScrumChatterDatabase.DATABASE_NAME);
         if (IOUtils.copy(internalDBFile, externalDBFile)) return externalDBFile;
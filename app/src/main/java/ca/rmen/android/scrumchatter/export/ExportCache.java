@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * The files created by the exports, with the version of the data they were created from. A file can be shared again, instead
+ * of being created again, as long as the provider didn't commit any write since.
+ */
+final class ExportCache {
+    private static final String TAG = Constants.TAG + "/" + ExportCache.class.getSimpleName();
+
+    private static class CachedFile {
+        final File file;
+        final String dataVersion;
+
+        CachedFile(File file, String dataVersion) {
+            this.file = file;
+            this.dataVersion = dataVersion;
+        }
+    }
+
+    private static final Map<String, CachedFile> sCachedFiles = new HashMap<>();
+
+    private ExportCache() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return the current version of the data, or null if the provider doesn't give it.
+     */
+    @Nullable
+    static String getDataVersion(Context context) {
+        Bundle result = context.getContentResolver().call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_DATA_VERSION, null, null);
+        return result == null ? null : result.getString(ScrumChatterProvider.EXTRA_DATA_VERSION);
+    }
+
+    /**
+     * @param key         identifies the export, and its options.
+     * @param dataVersion the current version of the data.
+     * @return the file created by the given export for the given version of the data, or null if there's none.
+     */
+    @Nullable
+    static synchronized File get(String key, @Nullable String dataVersion) {
+        CachedFile cachedFile = sCachedFiles.get(key);
+        if (cachedFile == null || dataVersion == null) return null;
+        if (!dataVersion.equals(cachedFile.dataVersion) || !cachedFile.file.exists()) {
+            Log.v(TAG, "Invalidate " + cachedFile.file + ", created from version " + cachedFile.dataVersion + ", now " + dataVersion);
+            sCachedFiles.remove(key);
+            return null;
+        }
+        return cachedFile.file;
+    }
+
+    /**
+     * @param dataVersion the version of the data read just before the file was created.
+     */
+    static synchronized void put(String key, @Nullable String dataVersion, File file) {
+        if (dataVersion == null) sCachedFiles.remove(key);
+        else sCachedFiles.put(key, new CachedFile(file, dataVersion));
+    }
+}
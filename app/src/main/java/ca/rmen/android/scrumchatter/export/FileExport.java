@@ -51,13 +51,31 @@ public abstract class FileExport {
     protected abstract File createFile();
 
     /**
+     * @return identifies the file created by {@link #createFile()}: two exports with the same key create the same file from
+     * the same data. Subclasses with options which change the file must add them to the key.
+     */
+    protected String getCacheKey() {
+        return getClass().getName();
+    }
+
+    /**
+     * Share the file created by a previous export with the same key, if the data didn't change since, or create the file.
+     *
      * @return true if we were able to export the file.
      */
     public boolean export() {
         Log.v(TAG, "export");
-        File file = createFile();
-        Log.v(TAG, "export: created file " + file);
-        if (file == null || !file.exists()) return false;
+        // Read the data version before creating the file, so that the file doesn't have older data than its version.
+        String dataVersion = ExportCache.getDataVersion(mContext);
+        File file = ExportCache.get(getCacheKey(), dataVersion);
+        if (file != null) {
+            Log.v(TAG, "export: reusing file " + file + " for version " + dataVersion);
+        } else {
+            file = createFile();
+            Log.v(TAG, "export: created file " + file);
+            if (file == null || !file.exists()) return false;
+            ExportCache.put(getCacheKey(), dataVersion, file);
+        }
         Export.share(mContext, file, mMimeType);
         return true;
     }
@@ -21,11 +21,15 @@ package ca.rmen.android.scrumchatter.export;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
+import android.provider.BaseColumns;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,311 +37,448 @@ import java.util.Map;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.MemberColumns;
 import ca.rmen.android.scrumchatter.provider.MemberCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.MemberStatsColumns;
 import ca.rmen.android.scrumchatter.provider.TeamColumns;
+import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
-import jxl.CellView;
-import jxl.JXLException;
-import jxl.Workbook;
-import jxl.format.Alignment;
-import jxl.format.Border;
-import jxl.format.BorderLineStyle;
-import jxl.format.CellFormat;
-import jxl.write.DateFormat;
-import jxl.write.DateFormats;
-import jxl.write.DateTime;
-import jxl.write.Label;
-import jxl.write.Number;
-import jxl.write.WritableCellFormat;
-import jxl.write.WritableFont;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
-import jxl.write.WriteException;
 
 /**
  * Export data for all meetings to an Excel file.
+ *
+ * The rows are written to the file as the meetings are read, so the memory used doesn't depend on the number of meetings.
+ *
+ * The last finished meeting exported for each team, before its first meeting in progress, is saved as the watermark of the
+ * team. The export may contain only the meetings which were finished after the watermark: the meetings since the last export.
  */
 public class MeetingsExport extends FileExport {
     private static final String TAG = Constants.TAG + "/" + MeetingsExport.class.getSimpleName();
 
-    private static final String EXCEL_FILE = "scrumchatter.xls";
-    private static final String MIME_TYPE = "application/vnd.ms-excel";
+    private static final String EXCEL_FILE = "scrumchatter.xlsx";
+    private static final String EXCEL_FILE_SINCE_LAST_EXPORT = "scrumchatter-new.xlsx";
+    private static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
 
-    private WritableWorkbook mWorkbook;
-    private WritableSheet mSheet;
-    private WritableCellFormat mDefaultFormat;
-    private WritableCellFormat mBoldFormat;
-    private final WritableCellFormat mLongDurationFormat = new WritableCellFormat(DateFormats.FORMAT8);
-    private final WritableCellFormat mShortDurationFormat = new WritableCellFormat(DateFormats.FORMAT10);
-    private final WritableCellFormat mDateFormat = new WritableCellFormat(new DateFormat("dd-MMM-yyyy HH:mm"));
+    // The columns are sized for their header, or for their values, if they are wider.
+    private static final int DATE_COLUMN_WIDTH = 18;
+    private static final int DURATION_COLUMN_WIDTH = 10;
 
+    private static final String[] MEETING_MEMBER_PROJECTION = new String[]{
+            MeetingColumns.TEAM_ID,
+            MeetingMemberColumns.MEETING_ID,
+            MeetingColumns.MEETING_DATE,
+            MeetingColumns.STATE,
+            MeetingColumns.TOTAL_DURATION,
+            MeetingMemberColumns.MEMBER_ID,
+            MeetingMemberColumns.DURATION};
+
+    private final boolean mIsSinceLastExport;
+    private XlsxWriter mWriter;
 
     public MeetingsExport(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * @param isSinceLastExport true to export only the finished meetings which weren't in a previous export.
+     */
+    public MeetingsExport(Context context, boolean isSinceLastExport) {
         super(context, MIME_TYPE);
+        mIsSinceLastExport = isSinceLastExport;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        return super.getCacheKey() + "/" + mIsSinceLastExport;
     }
 
     /**
      * Create and return an Excel file containing the speaking time for all members in all meetings.
+     *
+     * All the meetings are read in one pass, ordered by team, with one sheet per team. The meetings since the last export are
+     * read team by team, so that each query reads a range of the index on the team and date of the meetings.
      * 
      * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
      */
     protected File createFile() {
-        Log.v(TAG, "export");
+        Log.v(TAG, "export: since last export = " + mIsSinceLastExport);
+
+        // Each kind of export has its own file, so that it can be shared again while the data doesn't change.
+        File file = Export.getExportFile(mContext, mIsSinceLastExport ? EXCEL_FILE_SINCE_LAST_EXPORT : EXCEL_FILE);
+        if (file == null) return null;
 
-        File file = Export.getExportFile(mContext, EXCEL_FILE);
+        List<TeamSheet> teamSheets = readTeams();
+        if (teamSheets == null) return null;
 
+        //noinspection TryFinallyCanBeTryWithResources
         try {
-            mWorkbook = Workbook.createWorkbook(file);
+            mWriter = new XlsxWriter(new BufferedOutputStream(new FileOutputStream(file)));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                if (mIsSinceLastExport) {
+                    for (TeamSheet teamSheet : teamSheets) {
+                        writeTeamSinceLastExport(teamSheet);
+                    }
+                } else {
+                    writeAllTeams(teamSheets);
+                }
+            } finally {
+                // Clean up
+                mWriter.close();
+            }
         } catch (IOException e) {
-            Log.v(TAG, e.getMessage(), e);
+            Log.e(TAG, e.getMessage(), e);
             return null;
         }
-        // Create one worksheet for each team
+        // Only now that the file is complete, the exported meetings won't be in the next export since the last one.
+        Prefs prefs = Prefs.getInstance(mContext);
+        for (TeamSheet teamSheet : teamSheets) {
+            if (teamSheet.isWatermarkChanged) {
+                prefs.setExportWatermark(teamSheet.teamId, teamSheet.watermarkMeetingDate, teamSheet.watermarkMeetingId);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Write the sheets of all the teams, from one query on the meeting/member data of all the teams.
+     */
+    private void writeAllTeams(List<TeamSheet> teamSheets) throws IOException {
+        // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
+        @SuppressLint("Recycle")
+        Cursor meetingMemberCursor = mContext.getContentResolver().query(
+                MeetingMemberColumns.CONTENT_URI,
+                MEETING_MEMBER_PROJECTION,
+                MeetingMemberColumns.DURATION + ">0",
+                null,
+                MeetingColumns.TEAM_ID + ", "
+                        + MeetingColumns.MEETING_DATE + ", "
+                        + MeetingMemberColumns.MEETING_ID);
+        if (meetingMemberCursor == null) throw new IOException("Couldn't read the meetings");
+
+        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            // The teams and the rows are both ordered by team id: each team's sheet is written when the rows reach the team.
+            int nextTeam = 0;
+            TeamSheet teamSheet = null;
+            while (meetingMemberCursorWrapper.moveToNext()) {
+                long teamId = meetingMemberCursorWrapper.getMeetingTeamId();
+                if (teamSheet == null || teamSheet.teamId != teamId) {
+                    if (teamSheet != null) endTeam(teamSheet);
+                    teamSheet = null;
+                    // The teams without any meeting before this team have empty sheets.
+                    while (nextTeam < teamSheets.size() && teamSheets.get(nextTeam).teamId <= teamId) {
+                        TeamSheet nextTeamSheet = teamSheets.get(nextTeam++);
+                        startTeam(nextTeamSheet);
+                        if (nextTeamSheet.teamId == teamId) teamSheet = nextTeamSheet;
+                        else endTeam(nextTeamSheet);
+                    }
+                    // Ignore the meetings of a team which doesn't exist anymore.
+                    if (teamSheet == null) continue;
+                }
+                teamSheet.add(meetingMemberCursorWrapper);
+            }
+            if (teamSheet != null) endTeam(teamSheet);
+            while (nextTeam < teamSheets.size()) {
+                TeamSheet nextTeamSheet = teamSheets.get(nextTeam++);
+                startTeam(nextTeamSheet);
+                endTeam(nextTeamSheet);
+            }
+        } finally {
+            meetingMemberCursorWrapper.close();
+        }
+    }
+
+    /**
+     * Write the sheet of one team, with its finished meetings after its watermark.
+     */
+    private void writeTeamSinceLastExport(TeamSheet teamSheet) throws IOException {
+        // The meetings are ordered by date, then by id: the meetings at the same date as the watermark are after it if their
+        // id is greater. The date range comes first, so that the query uses the index on the team and date of the meetings.
+        String watermarkMeetingDate = String.valueOf(teamSheet.watermarkMeetingDate);
+        // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
+        @SuppressLint("Recycle")
+        Cursor meetingMemberCursor = mContext.getContentResolver().query(
+                MeetingMemberColumns.getTeamContentUri(teamSheet.teamId),
+                MEETING_MEMBER_PROJECTION,
+                MeetingColumns.STATE + "=" + State.FINISHED.ordinal()
+                        + " AND " + MeetingMemberColumns.DURATION + ">0"
+                        + " AND " + MeetingColumns.MEETING_DATE + ">=?"
+                        + " AND (" + MeetingColumns.MEETING_DATE + ">? OR " + MeetingMemberColumns.MEETING_ID + ">?)",
+                new String[]{watermarkMeetingDate, watermarkMeetingDate, String.valueOf(teamSheet.watermarkMeetingId)},
+                MeetingColumns.MEETING_DATE + ", " + MeetingMemberColumns.MEETING_ID);
+        if (meetingMemberCursor == null) throw new IOException("Couldn't read the meetings of team " + teamSheet.teamId);
+
+        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            startTeam(teamSheet);
+            while (meetingMemberCursorWrapper.moveToNext()) {
+                teamSheet.add(meetingMemberCursorWrapper);
+            }
+            endTeam(teamSheet);
+        } finally {
+            meetingMemberCursorWrapper.close();
+        }
+    }
+
+    /**
+     * @return the teams, ordered by id, with their watermarks and the members who talked in their meetings, or null if they
+     * couldn't be read.
+     */
+    private List<TeamSheet> readTeams() {
+        // The sheets are in the alphabetical order of the teams.
+        Prefs prefs = Prefs.getInstance(mContext);
+        List<TeamSheet> teamSheets = new ArrayList<>();
+        Map<Long, TeamSheet> teamSheetsById = new HashMap<>();
         Cursor c = mContext.getContentResolver().query(TeamColumns.CONTENT_URI, new String[] { TeamColumns._ID, TeamColumns.TEAM_NAME }, null, null,
                 TeamColumns.TEAM_NAME + " COLLATE NOCASE");
-        if (c != null) {
+        if (c == null) return null;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
             while (c.moveToNext()) {
-                int teamId = c.getInt(0);
-                String teamName = c.getString(1);
-                export(teamId, teamName);
+                TeamSheet teamSheet = new TeamSheet(c.getLong(0), c.getString(1), c.getPosition());
+                teamSheet.watermarkMeetingDate = prefs.getExportWatermarkMeetingDate(teamSheet.teamId);
+                teamSheet.watermarkMeetingId = prefs.getExportWatermarkMeetingId(teamSheet.teamId);
+                teamSheets.add(teamSheet);
+                teamSheetsById.put(teamSheet.teamId, teamSheet);
             }
+        } finally {
             c.close();
         }
-        // Clean up
+        Collections.sort(teamSheets, (teamSheet1, teamSheet2) -> teamSheet1.teamId < teamSheet2.teamId ? -1 : teamSheet1.teamId == teamSheet2.teamId ? 0 : 1);
+
+        // The first meeting in progress of each team: the watermark must stay before it, or it would never be exported once
+        // it's finished. The meetings which aren't started yet get a new date when they start, after the watermark.
+        c = mContext.getContentResolver().query(MeetingColumns.CONTENT_URI,
+                new String[] { MeetingColumns.TEAM_ID, MeetingColumns.MEETING_DATE, BaseColumns._ID },
+                MeetingColumns.STATE + "=" + State.IN_PROGRESS.ordinal(), null,
+                MeetingColumns.MEETING_DATE + ", " + BaseColumns._ID);
+        if (c == null) return null;
+        //noinspection TryFinallyCanBeTryWithResources
         try {
-            mWorkbook.write();
-            mWorkbook.close();
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
-            return null;
-        } catch (WriteException e) {
-            Log.e(TAG, e.getMessage(), e);
-            return null;
+            while (c.moveToNext()) {
+                TeamSheet teamSheet = teamSheetsById.get(c.getLong(0));
+                if (teamSheet != null && teamSheet.inProgressMeetingId == Long.MAX_VALUE) {
+                    teamSheet.inProgressMeetingDate = c.getLong(1);
+                    teamSheet.inProgressMeetingId = c.getLong(2);
+                }
+            }
+        } finally {
+            c.close();
         }
-        return file;
-    }
 
-    private void export(int teamId, String teamName) {
-        // Build a cache of all member names, including the average and total duration for each member.
-        List<String> memberNames = new ArrayList<>();
-        Map<String, Integer> avgMemberDurations = new HashMap<>();
-        Map<String, Integer> sumMemberDurations = new HashMap<>();
+        // The members who talked, of all the teams, for the columns of the sheets.
         // Closing the memberCursorWrapper will also close memberCursor
         @SuppressLint("Recycle")
         Cursor memberCursor = mContext.getContentResolver().query(MemberStatsColumns.CONTENT_URI,
-                new String[] { MemberColumns.NAME, MemberStatsColumns.AVG_DURATION, MemberStatsColumns.SUM_DURATION },
-                MemberStatsColumns.TEAM_ID + "=? AND " + "(" + MemberStatsColumns.SUM_DURATION + ">0 OR " + MemberStatsColumns.AVG_DURATION + " >0 " + ")",
-                new String[] { String.valueOf(teamId) }, MemberColumns.NAME);
+                new String[] { MemberColumns._ID, MemberColumns.NAME, MemberStatsColumns.TEAM_ID },
+                MemberStatsColumns.SUM_DURATION + ">0", null, MemberStatsColumns.TEAM_ID + ", " + MemberColumns.NAME);
         if (memberCursor != null) {
             MemberCursorWrapper memberCursorWrapper = new MemberCursorWrapper(memberCursor);
             while (memberCursor.moveToNext()) {
-                String memberName = memberCursorWrapper.getName();
-                memberNames.add(memberName);
-                avgMemberDurations.put(memberName, memberCursorWrapper.getAverageDuration());
-                sumMemberDurations.put(memberName, memberCursorWrapper.getSumDuration());
+                TeamSheet teamSheet = teamSheetsById.get(memberCursor.getLong(2));
+                if (teamSheet != null) teamSheet.addMember(memberCursorWrapper.getId(), memberCursorWrapper.getName());
             }
             memberCursorWrapper.close();
         }
+        return teamSheets;
+    }
 
+    private void startTeam(TeamSheet teamSheet) throws IOException {
         // Write out the column headings
         List<String> columnHeadings = new ArrayList<>();
         columnHeadings.add(mContext.getString(R.string.export_header_meeting_date));
-        columnHeadings.addAll(memberNames);
+        columnHeadings.addAll(teamSheet.memberNames);
         columnHeadings.add(mContext.getString(R.string.export_header_meeting_duration));
-        writeHeader(teamName, columnHeadings);
-
-        // Read all the meeting/member data
-        // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
-        @SuppressLint("Recycle")
-        Cursor meetingMemberCursor = mContext.getContentResolver().query(
-                MeetingMemberColumns.CONTENT_URI,
-                new String[]{
-                        MeetingMemberColumns.MEETING_ID,
-                        MeetingColumns.MEETING_DATE,
-                        MeetingColumns.TOTAL_DURATION,
-                        MemberColumns.NAME,
-                        MeetingMemberColumns.DURATION},
-                MeetingMemberColumns.DURATION + ">0 AND " + MeetingColumns.TEAM_ID + "=?",
-                new String[]{String.valueOf(teamId)},
-                MeetingColumns.MEETING_DATE + ", "
-                        + MeetingMemberColumns.MEETING_ID + ", "
-                        + MemberColumns.NAME);
+        writeHeader(teamSheet.teamName, teamSheet.position, columnHeadings);
+        teamSheet.startMeetings();
+    }
 
-        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
-        long totalMeetingDuration = 0;
-        //noinspection TryFinallyCanBeTryWithResources
-        try {
-            long currentMeetingId;
-            int rowNumber = 1;
-            while (meetingMemberCursorWrapper.moveToNext()) {
-                // Write one row to the Excel file, for one meeting.
-                insertDateCell(meetingMemberCursorWrapper.getMeetingDate(), rowNumber);
-                long meetingDuration = meetingMemberCursorWrapper.getTotalDuration();
-                totalMeetingDuration += meetingDuration;
-                insertDurationCell(meetingMemberCursorWrapper.getTotalDuration(), rowNumber, columnHeadings.size() - 1, null);
-                currentMeetingId = meetingMemberCursorWrapper.getMeetingId();
-
-                do {
-                    long meetingId = meetingMemberCursorWrapper.getMeetingId();
-                    if (meetingId != currentMeetingId) {
-                        meetingMemberCursorWrapper.move(-1);
-                        break;
-                    }
-                    String memberName = meetingMemberCursorWrapper.getMemberName();
-                    int memberColumnIndex = memberNames.indexOf(memberName) + 1;
-                    insertDurationCell(meetingMemberCursorWrapper.getDuration(), rowNumber, memberColumnIndex, null);
-                } while (meetingMemberCursorWrapper.moveToNext());
-                rowNumber++;
-            }
-            // Write the table footer containing the averages and totals
-            writeFooter(rowNumber, memberNames, sumMemberDurations, avgMemberDurations, totalMeetingDuration);
+    private void endTeam(TeamSheet teamSheet) throws IOException {
+        if (teamSheet.meetingCount > 0) writeMeeting(teamSheet.meetingDate, teamSheet.memberDurations, teamSheet.meetingDuration);
+        // Write the table footer containing the averages and totals
+        writeFooter(teamSheet.meetingCount, teamSheet.sumMemberDurations, teamSheet.memberMeetingCounts, teamSheet.totalMeetingDuration);
+        mWriter.endSheet();
+        teamSheet.endMeetings();
+    }
 
-        } finally {
-            meetingMemberCursorWrapper.close();
+    /**
+     * Create the sheet, with the first row and column frozen, and write the column headings.
+     * The columns are sized now, since the rows are written as soon as they are read.
+     */
+    private void writeHeader(String teamName, int position, List<String> columnNames) throws IOException {
+        int lastColumn = columnNames.size() - 1;
+        String sumLabel = mContext.getString(R.string.member_list_header_sum_duration);
+        String avgLabel = mContext.getString(R.string.member_list_header_avg_duration);
+        double[] columnWidths = new double[columnNames.size()];
+        for (int i = 0; i <= lastColumn; i++) {
+            int width = i == 0 ? Math.max(DATE_COLUMN_WIDTH, Math.max(sumLabel.length(), avgLabel.length())) : DURATION_COLUMN_WIDTH;
+            columnWidths[i] = Math.max(width, columnNames.get(i).length()) + 2;
         }
+        mWriter.startSheet(teamName, position, columnWidths, 1, 1);
+        mWriter.startRow();
+        for (int i = 0; i <= lastColumn; i++) {
+            mWriter.addString(i, columnNames.get(i), XlsxWriter.STYLE_HEADER);
+        }
+        mWriter.endRow();
     }
 
-
     /**
-     * Create the workbook, sheet, custom cell formats, and freeze row and
-     * column. Also write the column headings.
+     * Write the row of one meeting: its date, the speaking time of each member who talked, and the meeting duration.
      */
-    private void writeHeader(String teamName, List<String> columnNames) {
-        mSheet = mWorkbook.createSheet(teamName, 0);
-        mSheet.insertRow(0);
-        mSheet.getSettings().setHorizontalFreeze(1);
-        mSheet.getSettings().setVerticalFreeze(1);
-        createCellFormats();
-        for (int i = 0; i < columnNames.size(); i++) {
-            mSheet.insertColumn(i);
-            insertCell(columnNames.get(i), 0, i, mBoldFormat);
+    private void writeMeeting(long meetingDate, long[] memberDurations, long meetingDuration) throws IOException {
+        mWriter.startRow();
+        mWriter.addDate(0, meetingDate, XlsxWriter.STYLE_DATE);
+        for (int i = 0; i < memberDurations.length; i++) {
+            if (memberDurations[i] > 0) writeDuration(i + 1, memberDurations[i]);
         }
+        writeDuration(memberDurations.length + 1, meetingDuration);
+        mWriter.endRow();
     }
 
     /**
-     * Write the average and sum formulas at the bottom of the table.
+     * Write the total and average rows at the bottom of the table.
      * 
-     * @param rowNumber The row number for the row after the last row of the meetings.
-     * @param memberNames The names of each team member.
-     * @param sumMemberDurations The total speaking time per member, in seconds
-     * @param avgMemberDurations The average speaking time per member, in seconds
+     * @param meetingCount The number of meetings in the table.
+     * @param sumMemberDurations The total speaking time per member, in seconds, in the order of the columns.
+     * @param memberMeetingCounts The number of meetings in which each member talked, in the order of the columns.
      * @param totalMeetingDuration The total time of all meetings.
      */
-    private void writeFooter(int rowNumber, List<String> memberNames, Map<String, Integer> sumMemberDurations, Map<String, Integer> avgMemberDurations,
-            long totalMeetingDuration) {
-        try {
-            // Create formats we need for the bottom rows of the table.
-            WritableCellFormat boldTopBorderLabel = new WritableCellFormat(mBoldFormat);
-            boldTopBorderLabel.setBorder(Border.TOP, BorderLineStyle.DOUBLE);
-            WritableCellFormat boldTopBorderLongDuration = new WritableCellFormat(mLongDurationFormat);
-            boldTopBorderLongDuration.setFont(new WritableFont(mBoldFormat.getFont()));
-            boldTopBorderLongDuration.setBorder(Border.TOP, BorderLineStyle.DOUBLE);
-            WritableCellFormat boldShortDuration = new WritableCellFormat(mShortDurationFormat);
-            boldShortDuration.setFont(new WritableFont(mBoldFormat.getFont()));
-
-            // Insert the average and total titles.
-            insertCell(mContext.getString(R.string.member_list_header_sum_duration), rowNumber, 0, boldTopBorderLabel);
-            insertCell(mContext.getString(R.string.member_list_header_avg_duration), rowNumber + 1, 0, mBoldFormat);
-
-            int columnCount = memberNames.size() + 2;
-
-            // Insert the average and total durations for all members
-            for (int i = 0; i < memberNames.size(); i++) {
-                String memberName = memberNames.get(i);
-                int col = i + 1;
-                insertDurationCell(sumMemberDurations.get(memberName), rowNumber, col, boldTopBorderLongDuration);
-                insertDurationCell(avgMemberDurations.get(memberName), rowNumber + 1, col, boldShortDuration);
-            }
-
-            // Insert the average and total durations for the meetings.
-            insertDurationCell(totalMeetingDuration, rowNumber, columnCount - 1, boldTopBorderLongDuration);
-            int numMeetings = rowNumber - 1;
-            long averageMeetingDuration = numMeetings == 0 ? 0 : totalMeetingDuration / numMeetings;
-            insertDurationCell(averageMeetingDuration, rowNumber + 1, columnCount - 1, boldShortDuration);
-
-            // Now that the whole table is filled, auto-size the width of the first and last columns.
-            CellView columnView = mSheet.getColumnView(0);
-            columnView.setAutosize(true);
-            mSheet.setColumnView(0, columnView);
-
-            columnView = mSheet.getColumnView(columnCount - 1);
-            columnView.setAutosize(true);
-            mSheet.setColumnView(columnCount - 1, columnView);
-        } catch (JXLException e) {
-            Log.e(TAG, "Error adding formulas: " + e.getMessage(), e);
+    private void writeFooter(int meetingCount, long[] sumMemberDurations, int[] memberMeetingCounts, long totalMeetingDuration) throws IOException {
+        int lastColumn = sumMemberDurations.length + 1;
+
+        // Insert the total title, the total durations for all members, and the total duration of the meetings.
+        mWriter.startRow();
+        mWriter.addString(0, mContext.getString(R.string.member_list_header_sum_duration), XlsxWriter.STYLE_FOOTER_LABEL);
+        for (int i = 0; i < sumMemberDurations.length; i++) {
+            mWriter.addDuration(i + 1, sumMemberDurations[i], XlsxWriter.STYLE_FOOTER_LONG_DURATION);
         }
+        mWriter.addDuration(lastColumn, totalMeetingDuration, XlsxWriter.STYLE_FOOTER_LONG_DURATION);
+        mWriter.endRow();
+
+        // Insert the average title, the average durations for all members, and the average duration of the meetings.
+        // The average of a member is over the meetings in which they talked.
+        mWriter.startRow();
+        mWriter.addString(0, mContext.getString(R.string.member_list_header_avg_duration), XlsxWriter.STYLE_HEADER);
+        for (int i = 0; i < sumMemberDurations.length; i++) {
+            long averageMemberDuration = memberMeetingCounts[i] == 0 ? 0 : sumMemberDurations[i] / memberMeetingCounts[i];
+            mWriter.addDuration(i + 1, averageMemberDuration, XlsxWriter.STYLE_FOOTER_SHORT_DURATION);
+        }
+        long averageMeetingDuration = meetingCount == 0 ? 0 : totalMeetingDuration / meetingCount;
+        mWriter.addDuration(lastColumn, averageMeetingDuration, XlsxWriter.STYLE_FOOTER_SHORT_DURATION);
+        mWriter.endRow();
     }
 
+    private void writeDuration(int column, long durationInSeconds) throws IOException {
+        int style = durationInSeconds >= 3600 ? XlsxWriter.STYLE_LONG_DURATION : XlsxWriter.STYLE_SHORT_DURATION;
+        mWriter.addDuration(column, durationInSeconds, style);
+    }
+
+
     /**
-     * Write a single cell to the Excel file
-     * 
-     * @param text
-     *            will be written as text in the cell.
-     * @param format
-     *            may be null for the default cell format.
+     * A team, its columns, and the state of its sheet while its meetings are read.
      */
-    private void insertCell(String text, int row, int column, CellFormat format) {
-        Label label = format == null ? new Label(column, row, text, mDefaultFormat) : new Label(column, row, text, format);
-        try {
-            mSheet.addCell(label);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + text + " at row=" + row + ", col=" + column, e);
+    private class TeamSheet {
+        final long teamId;
+        final String teamName;
+        // The position of the sheet in the workbook.
+        final int position;
+        final List<String> memberNames = new ArrayList<>();
+        // The index of each member in the arrays of durations: the column of the member, minus one.
+        final Map<Long, Integer> memberIndexes = new HashMap<>();
+
+        // The current meeting
+        long currentMeetingId = -1;
+        long meetingDate;
+        long meetingDuration;
+        // The durations of the members in the current meeting. 0 for an empty cell.
+        long[] memberDurations;
+
+        // The totals, so far
+        int meetingCount;
+        long totalMeetingDuration;
+        long[] sumMemberDurations;
+        int[] memberMeetingCounts;
+
+        // The last finished meeting exported, now or before.
+        long watermarkMeetingDate;
+        long watermarkMeetingId;
+        boolean isWatermarkChanged;
+        // The first meeting in progress, or Long.MAX_VALUE if there's none.
+        long inProgressMeetingDate = Long.MAX_VALUE;
+        long inProgressMeetingId = Long.MAX_VALUE;
+
+        TeamSheet(long teamId, String teamName, int position) {
+            this.teamId = teamId;
+            this.teamName = teamName;
+            this.position = position;
         }
-    }
 
-    private void insertDurationCell(long durationInSeconds, int row, int column, CellFormat cellFormat) {
-        double durationInDays = (double) durationInSeconds / (24 * 60 * 60);
-        if (cellFormat == null) cellFormat = durationInSeconds >= 3600 ? mLongDurationFormat : mShortDurationFormat;
-        Number number = new Number(column, row, durationInDays, cellFormat);
-        try {
-            mSheet.addCell(number);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + durationInSeconds + " at row=" + row + ", col=" + column, e);
+        void addMember(long memberId, String memberName) {
+            memberIndexes.put(memberId, memberNames.size());
+            memberNames.add(memberName);
         }
-    }
 
-    private void insertDateCell(long dateInMillis, int row) {
-        DateTime dateCell = new DateTime(0, row, new Date(dateInMillis), mDateFormat);
-        try {
-            mSheet.addCell(dateCell);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + dateCell + " at row=" + row, e);
+        void startMeetings() {
+            memberDurations = new long[memberNames.size()];
+            sumMemberDurations = new long[memberNames.size()];
+            memberMeetingCounts = new int[memberNames.size()];
         }
-    }
 
-    /**
-     * In order to set text to bold, red, or green, we need to create cell
-     * formats for each style.
-     */
-    private void createCellFormats() {
+        /**
+         * Add the duration of one member in one meeting. If it's the first row of a meeting, the previous meeting is written.
+         */
+        void add(MeetingMemberCursorWrapper meetingMemberCursorWrapper) throws IOException {
+            long meetingId = meetingMemberCursorWrapper.getMeetingId();
+            if (meetingId != currentMeetingId) {
+                // Write one row to the Excel file, for the previous meeting.
+                if (meetingCount > 0) writeMeeting(meetingDate, memberDurations, meetingDuration);
+                currentMeetingId = meetingId;
+                meetingDate = meetingMemberCursorWrapper.getMeetingDate();
+                meetingDuration = meetingMemberCursorWrapper.getTotalDuration();
+                totalMeetingDuration += meetingDuration;
+                meetingCount++;
+                Arrays.fill(memberDurations, 0);
+                // Advance the watermark to the last finished meeting, before the first meeting in progress. The finished meetings
+                // after a meeting in progress will be exported again, with it, once it's finished.
+                if (meetingMemberCursorWrapper.getMeetingState() == State.FINISHED
+                        && isAfter(meetingDate, meetingId, watermarkMeetingDate, watermarkMeetingId)
+                        && isAfter(inProgressMeetingDate, inProgressMeetingId, meetingDate, meetingId)) {
+                    watermarkMeetingDate = meetingDate;
+                    watermarkMeetingId = meetingId;
+                    isWatermarkChanged = true;
+                }
+            }
+            Integer memberIndex = memberIndexes.get(meetingMemberCursorWrapper.getMemberId());
+            if (memberIndex != null) {
+                long duration = meetingMemberCursorWrapper.getDuration();
+                memberDurations[memberIndex] = duration;
+                sumMemberDurations[memberIndex] += duration;
+                memberMeetingCounts[memberIndex]++;
+            }
+        }
 
-        // Insert a dummy empty cell, so we can obtain its cell. This allows to
-        // start with a default cell format.
-        Label cell = new Label(0, 0, " ");
-        CellFormat cellFormat = cell.getCellFormat();
+        /**
+         * @return true if the first meeting is after the second one, in the order of the dates, then of the ids.
+         */
+        private boolean isAfter(long meetingDate1, long meetingId1, long meetingDate2, long meetingId2) {
+            return meetingDate1 > meetingDate2 || meetingDate1 == meetingDate2 && meetingId1 > meetingId2;
+        }
 
-        try {
-            // Create the bold format
-            final WritableFont boldFont = new WritableFont(cellFormat.getFont());
-            mBoldFormat = new WritableCellFormat(cellFormat);
-            boldFont.setBoldStyle(WritableFont.BOLD);
-            mBoldFormat.setFont(boldFont);
-            mBoldFormat.setAlignment(Alignment.CENTRE);
-
-            // Center other formats
-            mDefaultFormat = new WritableCellFormat(cellFormat);
-            mDefaultFormat.setAlignment(Alignment.CENTRE);
-            mLongDurationFormat.setAlignment(Alignment.CENTRE);
-            mShortDurationFormat.setAlignment(Alignment.CENTRE);
-            mDateFormat.setAlignment(Alignment.CENTRE);
-
-
-        } catch (WriteException e) {
-            Log.e(TAG, "createCellFormats Could not create cell formats", e);
+        /**
+         * Release the memory of the sheet, once it's written.
+         */
+        void endMeetings() {
+            memberNames.clear();
+            memberIndexes.clear();
+            memberDurations = null;
+            sumMemberDurations = null;
+            memberMeetingCounts = null;
         }
     }
 
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an Excel (xlsx) workbook one row at a time, straight into a zip stream.
+ *
+ * Only the current row is in memory: each cell is written to the xml of its sheet as soon as it's added. What's kept until
+ * the end is small: the table of the distinct strings (shared strings), and the names of the sheets. The cell styles are a
+ * fixed set, defined once in the styles of the workbook.
+ *
+ * Usage: {@link #startSheet}, then for each row, {@link #startRow()}, the cells in the order of their columns, and
+ * {@link #endRow()}. Then {@link #endSheet()}, and the next sheet, if any. Finally, {@link #close()}.
+ */
+class XlsxWriter implements Closeable {
+
+    // The cell styles, in the order of the cellXfs of the styles.
+    static final int STYLE_HEADER = 1;
+    static final int STYLE_DATE = 2;
+    static final int STYLE_SHORT_DURATION = 3;
+    static final int STYLE_LONG_DURATION = 4;
+    static final int STYLE_FOOTER_LABEL = 5;
+    static final int STYLE_FOOTER_LONG_DURATION = 6;
+    static final int STYLE_FOOTER_SHORT_DURATION = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String NS_PACKAGE_RELATIONSHIPS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String CONTENT_TYPE_PREFIX = "application/vnd.openxmlformats-officedocument.spreadsheetml.";
+
+    private static final String STYLES = XML_DECLARATION
+            + "<styleSheet xmlns=\"" + NS_MAIN + "\">"
+            + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"dd\\-mmm\\-yyyy hh:mm\"/></numFmts>"
+            + "<fonts count=\"2\">"
+            + "<font><sz val=\"10\"/><name val=\"Arial\"/></font>"
+            + "<font><b/><sz val=\"10\"/><name val=\"Arial\"/></font>"
+            + "</fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"2\">"
+            + "<border><left/><right/><top/><bottom/><diagonal/></border>"
+            + "<border><left/><right/><top style=\"double\"/><bottom/><diagonal/></border>"
+            + "</borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"8\">"
+            + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            // The durations use the built-in formats "h:mm:ss" (21) and "mm:ss" (45).
+            + getCenteredXf(0, 1, 0) // STYLE_HEADER
+            + getCenteredXf(164, 0, 0) // STYLE_DATE
+            + getCenteredXf(45, 0, 0) // STYLE_SHORT_DURATION
+            + getCenteredXf(21, 0, 0) // STYLE_LONG_DURATION
+            + getCenteredXf(0, 1, 1) // STYLE_FOOTER_LABEL
+            + getCenteredXf(21, 1, 1) // STYLE_FOOTER_LONG_DURATION
+            + getCenteredXf(45, 1, 0) // STYLE_FOOTER_SHORT_DURATION
+            + "</cellXfs>"
+            + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+            + "</styleSheet>";
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    // The serial number of 1970-01-01, in Excel dates.
+    private static final int EPOCH_SERIAL = 25569;
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+
+    private final ZipOutputStream mZipOutputStream;
+    private final Writer mWriter;
+    private final Map<String, Integer> mSharedStrings = new LinkedHashMap<>();
+    private final List<String> mSheetNames = new ArrayList<>();
+    private final List<Integer> mSheetPositions = new ArrayList<>();
+    private final Set<String> mLowerCaseSheetNames = new HashSet<>();
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private int mSharedStringReferenceCount;
+    private int mRowNumber;
+
+    XlsxWriter(OutputStream outputStream) {
+        mZipOutputStream = new ZipOutputStream(outputStream);
+        mWriter = new BufferedWriter(new OutputStreamWriter(mZipOutputStream, UTF_8));
+    }
+
+    /**
+     * Start a new sheet, after the previous one, if any, is ended.
+     *
+     * @param name          the name of the sheet. It's changed if Excel wouldn't accept it, or if it's used by another sheet.
+     * @param position      the position of the sheet in the workbook, which doesn't have to be the order in which the sheets
+     *                      are written.
+     * @param columnWidths  the width of the first columns, in characters.
+     * @param frozenRows    the number of rows at the top which don't scroll.
+     * @param frozenColumns the number of columns at the left which don't scroll.
+     */
+    void startSheet(String name, int position, double[] columnWidths, int frozenRows, int frozenColumns) throws IOException {
+        mSheetNames.add(getUniqueSheetName(name));
+        mSheetPositions.add(position);
+        startEntry("xl/worksheets/sheet" + mSheetNames.size() + ".xml");
+        mWriter.write(XML_DECLARATION);
+        mWriter.write("<worksheet xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_RELATIONSHIPS + "\">");
+        mWriter.write("<sheetViews><sheetView workbookViewId=\"0\">");
+        if (frozenRows > 0 || frozenColumns > 0) {
+            mWriter.write("<pane");
+            if (frozenColumns > 0) mWriter.write(" xSplit=\"" + frozenColumns + "\"");
+            if (frozenRows > 0) mWriter.write(" ySplit=\"" + frozenRows + "\"");
+            String activePane = frozenRows == 0 ? "topRight" : frozenColumns == 0 ? "bottomLeft" : "bottomRight";
+            mWriter.write(" topLeftCell=\"" + getCellReference(frozenRows + 1, frozenColumns) + "\" activePane=\"" + activePane
+                    + "\" state=\"frozen\"/>");
+        }
+        mWriter.write("</sheetView></sheetViews>");
+        if (columnWidths.length > 0) {
+            mWriter.write("<cols>");
+            for (int i = 0; i < columnWidths.length; i++) {
+                mWriter.write("<col min=\"" + (i + 1) + "\" max=\"" + (i + 1) + "\" width=\"" + columnWidths[i] + "\" customWidth=\"1\"/>");
+            }
+            mWriter.write("</cols>");
+        }
+        mWriter.write("<sheetData>");
+        mRowNumber = 0;
+    }
+
+    void startRow() throws IOException {
+        mRowNumber++;
+        mWriter.write("<row r=\"" + mRowNumber + "\">");
+    }
+
+    /**
+     * The cells of a row must be added in the order of their columns.
+     *
+     * @param column the index of the column, starting at 0.
+     */
+    void addString(int column, String text, int style) throws IOException {
+        if (text == null) return;
+        Integer index = mSharedStrings.get(text);
+        if (index == null) {
+            index = mSharedStrings.size();
+            mSharedStrings.put(text, index);
+        }
+        mSharedStringReferenceCount++;
+        writeCellStart(column, style, "s");
+        mWriter.write(String.valueOf(index));
+        mWriter.write("</v></c>");
+    }
+
+    void addNumber(int column, double value, int style) throws IOException {
+        writeCellStart(column, style, null);
+        mWriter.write(String.valueOf(value));
+        mWriter.write("</v></c>");
+    }
+
+    /**
+     * @param durationInSeconds written in days, which is how Excel stores the times.
+     */
+    void addDuration(int column, long durationInSeconds, int style) throws IOException {
+        addNumber(column, (double) durationInSeconds / (24 * 60 * 60), style);
+    }
+
+    /**
+     * @param dateInMillis written in the local time zone.
+     */
+    void addDate(int column, long dateInMillis, int style) throws IOException {
+        long localMillis = dateInMillis + mTimeZone.getOffset(dateInMillis);
+        addNumber(column, EPOCH_SERIAL + (double) localMillis / MILLIS_PER_DAY, style);
+    }
+
+    void endRow() throws IOException {
+        mWriter.write("</row>");
+    }
+
+    void endSheet() throws IOException {
+        mWriter.write("</sheetData></worksheet>");
+        endEntry();
+    }
+
+    /**
+     * Write the parts of the workbook which refer to the sheets or the strings, and close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            writeSharedStrings();
+            writeEntry("xl/styles.xml", STYLES);
+            writeWorkbook();
+            writeContentTypes();
+            writeEntry("_rels/.rels", XML_DECLARATION
+                    + "<Relationships xmlns=\"" + NS_PACKAGE_RELATIONSHIPS + "\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + NS_RELATIONSHIPS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                    + "</Relationships>");
+        } finally {
+            mWriter.close();
+        }
+    }
+
+    private void writeSharedStrings() throws IOException {
+        startEntry("xl/sharedStrings.xml");
+        mWriter.write(XML_DECLARATION);
+        mWriter.write("<sst xmlns=\"" + NS_MAIN + "\" count=\"" + mSharedStringReferenceCount + "\" uniqueCount=\"" + mSharedStrings.size() + "\">");
+        for (String text : mSharedStrings.keySet()) {
+            mWriter.write("<si><t xml:space=\"preserve\">");
+            mWriter.write(escape(text));
+            mWriter.write("</t></si>");
+        }
+        mWriter.write("</sst>");
+        endEntry();
+    }
+
+    private void writeWorkbook() throws IOException {
+        StringBuilder workbook = new StringBuilder(XML_DECLARATION)
+                .append("<workbook xmlns=\"").append(NS_MAIN).append("\" xmlns:r=\"").append(NS_RELATIONSHIPS).append("\"><sheets>");
+        StringBuilder relationships = new StringBuilder(XML_DECLARATION)
+                .append("<Relationships xmlns=\"").append(NS_PACKAGE_RELATIONSHIPS).append("\">");
+        // The sheets are listed in the order of their positions. The sort is stable: sheets at the same position stay in the
+        // order they were written.
+        List<Integer> sheetOrder = new ArrayList<>();
+        for (int i = 1; i <= mSheetNames.size(); i++) {
+            sheetOrder.add(i);
+        }
+        Collections.sort(sheetOrder, (i, j) -> mSheetPositions.get(i - 1).compareTo(mSheetPositions.get(j - 1)));
+        for (int i : sheetOrder) {
+            workbook.append("<sheet name=\"").append(escape(mSheetNames.get(i - 1))).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+        }
+        for (int i = 1; i <= mSheetNames.size(); i++) {
+            relationships.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(NS_RELATIONSHIPS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        workbook.append("</sheets></workbook>");
+        int sheetCount = mSheetNames.size();
+        relationships.append("<Relationship Id=\"rId").append(sheetCount + 1).append("\" Type=\"").append(NS_RELATIONSHIPS)
+                .append("/styles\" Target=\"styles.xml\"/>");
+        relationships.append("<Relationship Id=\"rId").append(sheetCount + 2).append("\" Type=\"").append(NS_RELATIONSHIPS)
+                .append("/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+        relationships.append("</Relationships>");
+        writeEntry("xl/workbook.xml", workbook.toString());
+        writeEntry("xl/_rels/workbook.xml.rels", relationships.toString());
+    }
+
+    private void writeContentTypes() throws IOException {
+        StringBuilder contentTypes = new StringBuilder(XML_DECLARATION)
+                .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"").append(CONTENT_TYPE_PREFIX).append("sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"").append(CONTENT_TYPE_PREFIX).append("styles+xml\"/>")
+                .append("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"").append(CONTENT_TYPE_PREFIX).append("sharedStrings+xml\"/>");
+        for (int i = 1; i <= mSheetNames.size(); i++) {
+            contentTypes.append("<Override PartName=\"/xl/worksheets/sheet").append(i).append(".xml\" ContentType=\"")
+                    .append(CONTENT_TYPE_PREFIX).append("worksheet+xml\"/>");
+        }
+        contentTypes.append("</Types>");
+        writeEntry("[Content_Types].xml", contentTypes.toString());
+    }
+
+    private void writeCellStart(int column, int style, String type) throws IOException {
+        mWriter.write("<c r=\"");
+        mWriter.write(getCellReference(mRowNumber, column));
+        mWriter.write("\" s=\"");
+        mWriter.write(String.valueOf(style));
+        if (type != null) {
+            mWriter.write("\" t=\"");
+            mWriter.write(type);
+        }
+        mWriter.write("\"><v>");
+    }
+
+    private void writeEntry(String name, String content) throws IOException {
+        startEntry(name);
+        mWriter.write(content);
+        endEntry();
+    }
+
+    private void startEntry(String name) throws IOException {
+        mZipOutputStream.putNextEntry(new ZipEntry(name));
+    }
+
+    private void endEntry() throws IOException {
+        // The writer buffers the text of this entry.
+        mWriter.flush();
+        mZipOutputStream.closeEntry();
+    }
+
+    /**
+     * Excel doesn't accept some characters in the names of the sheets, names longer than 31 characters, nor the same name
+     * twice, ignoring the case.
+     */
+    private String getUniqueSheetName(String name) {
+        String sheetName = name == null ? "" : name.replaceAll("[\\[\\]:*?/\\\\]", "_");
+        if (sheetName.trim().isEmpty()) sheetName = "Sheet" + (mSheetNames.size() + 1);
+        if (sheetName.length() > MAX_SHEET_NAME_LENGTH) sheetName = sheetName.substring(0, MAX_SHEET_NAME_LENGTH);
+        String uniqueSheetName = sheetName;
+        for (int i = 2; mLowerCaseSheetNames.contains(uniqueSheetName.toLowerCase(Locale.US)); i++) {
+            String suffix = " (" + i + ")";
+            uniqueSheetName = sheetName.substring(0, Math.min(sheetName.length(), MAX_SHEET_NAME_LENGTH - suffix.length())) + suffix;
+        }
+        mLowerCaseSheetNames.add(uniqueSheetName.toLowerCase(Locale.US));
+        return uniqueSheetName;
+    }
+
+    /**
+     * @param row    starting at 1.
+     * @param column starting at 0.
+     * @return the reference of the cell, like "B3".
+     */
+    private static String getCellReference(int row, int column) {
+        StringBuilder columnName = new StringBuilder();
+        for (int i = column + 1; i > 0; i = (i - 1) / 26) {
+            columnName.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return columnName.append(row).toString();
+    }
+
+    /**
+     * @return the text, with the xml special characters escaped, and without the characters which aren't allowed in xml.
+     */
+    private static String escape(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    result.append("&amp;");
+                    break;
+                case '<':
+                    result.append("&lt;");
+                    break;
+                case '>':
+                    result.append("&gt;");
+                    break;
+                case '"':
+                    result.append("&quot;");
+                    break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        if (c != 0xFFFE && c != 0xFFFF) result.append(c);
+                    }
+                    break;
+            }
+        }
+        return result.toString();
+    }
+
+    private static String getCenteredXf(int numFmtId, int fontId, int borderId) {
+        return "<xf numFmtId=\"" + numFmtId + "\" fontId=\"" + fontId + "\" fillId=\"0\" borderId=\"" + borderId + "\" xfId=\"0\""
+                + (numFmtId == 0 ? "" : " applyNumberFormat=\"1\"")
+                + (fontId == 0 ? "" : " applyFont=\"1\"")
+                + (borderId == 0 ? "" : " applyBorder=\"1\"")
+                + " applyAlignment=\"1\"><alignment horizontal=\"center\"/></xf>";
+    }
+}
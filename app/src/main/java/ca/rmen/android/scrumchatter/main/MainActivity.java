@@ -45,6 +45,7 @@ import android.view.MenuItem;
 
 import java.util.Arrays;
 
+import ca.rmen.android.scrumchatter.BuildConfig;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.about.AboutActivity;
@@ -55,15 +56,20 @@ import ca.rmen.android.scrumchatter.dialog.ConfirmDialogFragment.DialogButtonLis
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
 import ca.rmen.android.scrumchatter.dialog.InputDialogFragment.DialogInputListener;
 import ca.rmen.android.scrumchatter.dialog.ProgressDialogFragment;
+import ca.rmen.android.scrumchatter.export.CsvExport;
 import ca.rmen.android.scrumchatter.export.DBExport;
 import ca.rmen.android.scrumchatter.export.FileExport;
 import ca.rmen.android.scrumchatter.export.MeetingsExport;
 import ca.rmen.android.scrumchatter.meeting.Meetings;
 import ca.rmen.android.scrumchatter.meeting.detail.MeetingFragment;
+import ca.rmen.android.scrumchatter.meeting.detail.MeetingJournal;
+import ca.rmen.android.scrumchatter.meeting.detail.MeetingSessions;
 import ca.rmen.android.scrumchatter.meeting.list.MeetingsListFragment;
 import ca.rmen.android.scrumchatter.member.list.Members;
 import ca.rmen.android.scrumchatter.provider.DBImport;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.ProviderStats;
+import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.settings.SettingsActivity;
 import ca.rmen.android.scrumchatter.settings.Theme;
 import ca.rmen.android.scrumchatter.team.Teams;
@@ -72,6 +78,7 @@ import ca.rmen.android.scrumchatter.team.TeamsObserver;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.util.StrictModeUtil;
 import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
 
 
@@ -158,6 +165,12 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
             if (Intent.ACTION_VIEW.equals(intent.getAction())) importDB(intent.getData());
         }
 
+        // Write the changes of the meetings which were in progress when the app was last killed.
+        if (savedInstanceState == null) {
+            Context context = getApplicationContext();
+            Schedulers.single().scheduleDirect(() -> MeetingJournal.recoverAll(context));
+        }
+
         // Register various observers.
         mTeamsObserver = new TeamsObserver(this, mOnTeamsChangedListener);
         mOnTeamsChangedListener.onTeamsChanged();
@@ -253,6 +266,9 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
         if (menuItem != null) menuItem.setVisible(hasMeetings);
         menuItem = menu.findItem(R.id.action_charts_submenu);
         if (menuItem != null) menuItem.setVisible(hasMeetings);
+
+        // The database stats are only for debugging.
+        menu.findItem(R.id.action_database_stats).setVisible(BuildConfig.DEBUG);
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -291,6 +307,12 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 Intent aboutIntent = new Intent(this, AboutActivity.class);
                 startActivity(aboutIntent);
                 return true;
+            case R.id.action_database_stats:
+                Single.fromCallable(() -> ProviderStats.dump(getApplicationContext()))
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(report -> DialogFragmentFactory.showInfoDialog(this, getString(R.string.action_database_stats), report));
+                return true;
         }
         super.onOptionsItemSelected(item);
         return false;
@@ -424,8 +446,13 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 boolean result = false;
                 try {
                     Log.v(TAG, "Importing db from " + uri);
-                    DBImport.importDB(MainActivity.this, uri);
-                    result = true;
+                    // The meetings in progress are replaced: their sessions must not write to the imported db.
+                    if (MeetingSessions.getInstance(MainActivity.this).closeAll()) {
+                        DBImport.importDB(MainActivity.this, uri);
+                        result = true;
+                    } else {
+                        Log.v(TAG, "The meetings in progress couldn't be saved: not importing the db");
+                    }
                 } catch (Exception e) {
                     Log.e(TAG, "Error importing db: " + e.getMessage(), e);
                 }
@@ -453,12 +480,23 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
             FileExport fileExport = null;
             if (getString(R.string.export_format_excel).equals(choices[which]))
                 fileExport = new MeetingsExport(MainActivity.this);
+            else if (getString(R.string.export_format_excel_since_last_export).equals(choices[which]))
+                fileExport = new MeetingsExport(MainActivity.this, true);
+            else if (getString(R.string.export_format_csv).equals(choices[which]))
+                fileExport = createCsvExport(CsvExport.Format.CSV);
+            else if (getString(R.string.export_format_tsv).equals(choices[which]))
+                fileExport = createCsvExport(CsvExport.Format.TSV);
             else if (getString(R.string.export_format_db).equals(choices[which]))
                 fileExport = new DBExport(MainActivity.this);
             shareFile(fileExport);
         }
     }
 
+    private FileExport createCsvExport(CsvExport.Format format) {
+        Prefs prefs = Prefs.getInstance(this);
+        return new CsvExport(MainActivity.this, format, prefs.isTextExportPerTeam(), prefs.isTextExportCompressed());
+    }
+
     /**
      * The user tapped on the OK button on a dialog in which s/he entered text.
      *
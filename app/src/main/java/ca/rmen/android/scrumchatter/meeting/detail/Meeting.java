@@ -18,15 +18,12 @@
  */
 package ca.rmen.android.scrumchatter.meeting.detail;
 
-import java.util.ArrayList;
-
 import android.annotation.SuppressLint;
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderOperation.Builder;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.WorkerThread;
 
@@ -36,8 +33,6 @@ import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingCursorWrapper;
-import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
-import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
 
 /**
@@ -137,15 +132,15 @@ public class Meeting {
     }
 
     /**
-     * Updates the start time to now, sets the state to in_progress, and persists the changes.
+     * Updates the start time to the given time, sets the state to in_progress, and persists the changes.
      */
-    void start() {
+    void start(long now) {
         /*
          * Change the date of the meeting to now. We do this when the
          * meeting goes from not-started to in-progress. This way it is
          * easier to track the duration of the meeting.
          */
-        mStartDate = System.currentTimeMillis();
+        mStartDate = now;
         mState = State.IN_PROGRESS;
         save();
     }
@@ -154,99 +149,21 @@ public class Meeting {
      * Updates the meeting duration to time elapsed since startDate, sets the state to finished, and persists the changes.
      */
     void stop() {
-        mState = State.FINISHED;
-        long meetingDuration = System.currentTimeMillis() - mStartDate;
-        mDuration = meetingDuration / 1000;
-        shutEverybodyUp();
-        save();
+        stop(System.currentTimeMillis());
     }
 
     /**
-     * Stop the chronometers of all team members who are still talking. Update
-     * the duration for these team members.
+     * Stop the meeting at the given time. The provider ends the turn of the member who is still talking, and finishes the
+     * meeting, in one transaction.
      */
-    private void shutEverybodyUp() {
-        Log.v(TAG, "shutEverybodyUp");
-        // Query all team members who are still talking in this meeting.
-        Uri uri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(mId));
-        // Closing the cursorWrapper also closes the cursor
-        @SuppressLint("Recycle")
-        Cursor cursor = mContext.getContentResolver().query(uri,
-                new String[] { MeetingMemberColumns.MEMBER_ID, MeetingMemberColumns.DURATION, MeetingMemberColumns.TALK_START_TIME },
-                MeetingMemberColumns.TALK_START_TIME + ">0", null, null);
-        if (cursor != null) {
-            // Prepare some update statements to set the duration and reset the
-            // talk_start_time, for these members.
-            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
-            MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
-            if (cursorWrapper.moveToFirst()) {
-                do {
-                    // Prepare an update operation for one of these members.
-                    Builder builder = ContentProviderOperation.newUpdate(MeetingMemberColumns.CONTENT_URI);
-                    long memberId = cursorWrapper.getMemberId();
-                    // Calculate the total duration the team member talked
-                    // during this meeting.
-                    long duration = cursorWrapper.getDuration();
-                    long talkStartTime = cursorWrapper.getTalkStartTime();
-                    long newDuration = duration + (System.currentTimeMillis() - talkStartTime) / 1000;
-                    builder.withValue(MeetingMemberColumns.DURATION, newDuration);
-                    builder.withValue(MeetingMemberColumns.TALK_START_TIME, 0);
-                    builder.withSelection(MeetingMemberColumns.MEMBER_ID + "=? AND " + MeetingMemberColumns.MEETING_ID + "=?",
-                            new String[] { String.valueOf(memberId), String.valueOf(mId) });
-                    operations.add(builder.build());
-                } while (cursorWrapper.moveToNext());
-            }
-            cursorWrapper.close();
-            try {
-                // Batch update these team members.
-                mContext.getContentResolver().applyBatch(ScrumChatterProvider.AUTHORITY, operations);
-            } catch (Exception e) {
-                Log.v(TAG, "Couldn't close off meeting: " + e.getMessage(), e);
-            }
-        }
-    }
-
-    /**
-     * If the team member is talking, stop them. Otherwise, stop all other team members who may be talking, and start this one.
-     */
-    void toggleTalkingMember(final long memberId) {
-        Log.v(TAG, "toggleTalkingMember " + memberId);
-
-        // Find out if this member is currently talking:
-        // read its talk_start_time and duration fields.
-        Uri meetingMemberUri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(mId));
-        // Closing the cursorWrapper also closes the cursor
-        @SuppressLint("Recycle")
-        Cursor cursor = mContext.getContentResolver().query(meetingMemberUri,
-                new String[] { MeetingMemberColumns.TALK_START_TIME, MeetingMemberColumns.DURATION }, MeetingMemberColumns.MEMBER_ID + "=?",
-                new String[] { String.valueOf(memberId) }, null);
-        long talkStartTime = 0;
-        long duration = 0;
-        if (cursor != null) {
-            MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
-            if (cursorWrapper.moveToFirst()) {
-                talkStartTime = cursorWrapper.getTalkStartTime();
-                duration = cursorWrapper.getDuration();
-            }
-            cursorWrapper.close();
-        }
-        Log.v(TAG, "Talking member: duration = " + duration + ", talkStartTime = " + talkStartTime);
-        ContentValues values = new ContentValues(2);
-        // The member is currently talking if talkStartTime > 0.
-        if (talkStartTime > 0) {
-            long justTalkedFor = (System.currentTimeMillis() - talkStartTime) / 1000;
-            long newDuration = duration + justTalkedFor;
-            values.put(MeetingMemberColumns.DURATION, newDuration);
-            values.put(MeetingMemberColumns.TALK_START_TIME, 0);
-        } else {
-            // shut up any other talking member before this one starts.
-            shutEverybodyUp();
-            values.put(MeetingMemberColumns.TALK_START_TIME, System.currentTimeMillis());
-        }
-
-        mContext.getContentResolver().update(MeetingMemberColumns.CONTENT_URI, values,
-                MeetingMemberColumns.MEMBER_ID + "=? AND " + MeetingMemberColumns.MEETING_ID + "=?",
-                new String[] { String.valueOf(memberId), String.valueOf(mId) });
+    void stop(long now) {
+        Log.v(TAG, "stop " + this);
+        Bundle extras = new Bundle(2);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mId);
+        extras.putLong(ScrumChatterProvider.EXTRA_NOW, now);
+        mContext.getContentResolver().call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_STOP_MEETING, null, extras);
+        mState = State.FINISHED;
+        mDuration = (now - mStartDate) / 1000;
     }
 
     /**
@@ -254,6 +171,7 @@ public class Meeting {
      */
     public void delete() {
         Log.v(TAG, "delete " + this);
+        MeetingSessions.getInstance(mContext).discard(mId);
         mContext.getContentResolver().delete(mUri, null, null);
     }
 
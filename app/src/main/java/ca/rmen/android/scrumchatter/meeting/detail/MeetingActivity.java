@@ -74,7 +74,7 @@ public class MeetingActivity extends AppCompatActivity implements DialogButtonLi
         // Create the pager adapter. The pager adapter constructor reads from the DB, so
         // we need to create it in a background thread.  When it's ready, we'll use it 
         // with the ViewPager, and open the ViewPager to the correct meeting.
-        MeetingPagerAdapter.create(this)
+        MeetingPagerAdapter.create(this, meetingId)
                 .doOnSuccess(meetingPagerAdapter -> mMeetingPagerAdapter = meetingPagerAdapter)
                 .subscribe(meetingPagerAdapter -> onPagerAdapterCreated(meetingId, meetingPagerAdapter));
     }
@@ -86,6 +86,7 @@ public class MeetingActivity extends AppCompatActivity implements DialogButtonLi
         int position = meetingPagerAdapter.getPositionForMeetingId(meetingId);
         Log.v(TAG, "meeting " + meetingId + " is on page " + position);
         mBinding.pager.setCurrentItem(position);
+        meetingPagerAdapter.onPageSelected(position);
     }
 
     @Override
@@ -154,6 +155,7 @@ public class MeetingActivity extends AppCompatActivity implements DialogButtonLi
             Log.v(TAG, "onPageSelected, position = " + position);
             Meeting meeting = mMeetingPagerAdapter.getMeetingAt(position);
             Log.v(TAG, "Selected meeting " + meeting);
+            mMeetingPagerAdapter.onPageSelected(position);
             ActionBar supportActionBar = getSupportActionBar();
             if (supportActionBar != null) supportActionBar.setTitle(TextUtils.formatDateTime(MeetingActivity.this, meeting.getStartDate()));
         }
@@ -19,20 +19,21 @@
 package ca.rmen.android.scrumchatter.meeting.detail;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.graphics.drawable.AnimationDrawable;
-import android.os.Handler;
-import android.os.SystemClock;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewTreeObserver.OnGlobalLayoutListener;
-import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
@@ -48,10 +49,16 @@ import ca.rmen.android.scrumchatter.widget.ScrumChatterCursorAdapter;
  */
 public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCursorAdapter.MeetingViewHolder> {
     private static final String TAG = Constants.TAG + "/" + MeetingCursorAdapter.class.getSimpleName();
+    // Only the talk state of the row needs to be updated.
+    private static final Object PAYLOAD_TALK_STATE = new Object();
     private final MemberStartStopListener mMemberStartStopListener;
     private final @ColorInt int mColorChronoActive;
     private final @ColorInt int mColorChronoInactive;
     private final @ColorInt int mColorChronoNotStarted;
+    private final MeetingTicker mTicker;
+    private MeetingSession mSession;
+    // The rows of the current cursor, to find the rows which change.
+    private List<MemberRow> mRows = new ArrayList<>();
 
     public interface MemberStartStopListener {
         void toggleTalkingMember(long memberId);
@@ -61,16 +68,78 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
      * @param memberStartStopListener
      *            clicks on the start/stop button on each list item will be forwarded to this
      *            listener.
+     * @param ticker
+     *            updates the chronometers of the members who are talking.
      */
-    MeetingCursorAdapter(Context context, MemberStartStopListener memberStartStopListener) {
+    MeetingCursorAdapter(Context context, MemberStartStopListener memberStartStopListener, MeetingTicker ticker) {
         super();
         Log.v(TAG, "Constructor");
         mMemberStartStopListener = memberStartStopListener;
+        mTicker = ticker;
         mColorChronoActive = ContextCompat.getColor(context, R.color.chrono_active);
         mColorChronoInactive = ContextCompat.getColor(context, R.color.chrono_inactive);
         mColorChronoNotStarted = ContextCompat.getColor(context, R.color.chrono_not_started);
     }
 
+    /**
+     * @param session the live state of the meeting, if it isn't finished. It's used instead of the talk state read from the DB,
+     *                which may not be up to date.
+     */
+    void setSession(MeetingSession session) {
+        mSession = session;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Use the new cursor. If it has the same members as the current one, only the rows which changed are updated.
+     */
+    @Override
+    public void changeCursor(Cursor cursor) {
+        if (cursor == getCursor()) return;
+        List<MemberRow> previousRows = mRows;
+        mRows = readRows(cursor);
+        if (!hasSameMembers(previousRows, mRows)) {
+            super.changeCursor(cursor);
+            return;
+        }
+        setCursor(cursor);
+        for (int i = 0; i < mRows.size(); i++) {
+            MemberRow previousRow = previousRows.get(i);
+            MemberRow row = mRows.get(i);
+            if (!TextUtils.equals(previousRow.memberName, row.memberName) || previousRow.meetingState != row.meetingState) {
+                notifyItemChanged(i);
+            } else if ((previousRow.duration != row.duration || previousRow.talkStartTime != row.talkStartTime)
+                    // The talk state of the members of the session doesn't come from the cursor.
+                    && (mSession == null || !mSession.hasMember(row.memberId))) {
+                notifyItemChanged(i, PAYLOAD_TALK_STATE);
+            }
+        }
+    }
+
+    /**
+     * Update the rows of the given members, after their talk state changed in the session.
+     */
+    void notifyTalkStateChanged(long... memberIds) {
+        for (long memberId : memberIds) {
+            for (int i = 0; i < mRows.size(); i++) {
+                if (mRows.get(i).memberId == memberId) {
+                    notifyItemChanged(i, PAYLOAD_TALK_STATE);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the name of the given member, or null if they aren't displayed.
+     */
+    String getMemberName(long memberId) {
+        for (MemberRow row : mRows) {
+            if (row.memberId == memberId) return row.memberName;
+        }
+        return null;
+    }
+
     @Override
     public MeetingViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         MeetingMemberListItemBinding binding = DataBindingUtil.inflate(LayoutInflater.from(parent.getContext()), R.layout.meeting_member_list_item, parent, false);
@@ -93,15 +162,15 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
         meetingMemberItemData.memberName = cursorWrapper.getMemberName();
         long duration = cursorWrapper.getDuration();
         State meetingState = cursorWrapper.getMeetingState();
-        Long talkStartTime = cursorWrapper.getTalkStartTime();
+        long talkStartTime = cursorWrapper.getTalkStartTime();
+        if (mSession != null && mSession.hasMember(meetingMemberItemData.memberId)) {
+            duration = mSession.getDuration(meetingMemberItemData.memberId);
+            talkStartTime = mSession.getTalkStartTime(meetingMemberItemData.memberId);
+        }
 
         // Find the Views we need to set up
         MeetingMemberListItemBinding binding = holder.binding;
 
-        // if the talkStartTime is non-zero, this means the
-        // member is talking (and started talking that long ago).
-        meetingMemberItemData.isTalking = talkStartTime > 0;
-
         // Set up the start/stop button for this member.
         // If the meeting is finished, we hide the start/stop button.
         if (meetingState == State.FINISHED) {
@@ -109,29 +178,114 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
         }
         meetingMemberItemData.clickable = meetingState != State.FINISHED;
 
-        // If the member is currently talking, show the chronometer.
+        @ColorRes int backgroundColorRes = (position % 2 == 0)? R.color.row_background_color_even : R.color.row_background_color_odd;
+        meetingMemberItemData.backgroundColor = ContextCompat.getColor(binding.getRoot().getContext(), backgroundColorRes);
+        holder.itemData = meetingMemberItemData;
+        bindTalkState(holder, duration, talkStartTime);
+    }
+
+    /**
+     * Only update the talk state of the row, if that's the only change.
+     */
+    @Override
+    public void onBindViewHolder(MeetingViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty() || holder.itemData == null || !isTalkStateOnly(payloads)) {
+            super.onBindViewHolder(holder, position, payloads);
+            return;
+        }
+        MemberRow row = mRows.get(position);
+        long duration = row.duration;
+        long talkStartTime = row.talkStartTime;
+        if (mSession != null && mSession.hasMember(row.memberId)) {
+            duration = mSession.getDuration(row.memberId);
+            talkStartTime = mSession.getTalkStartTime(row.memberId);
+        }
+        bindTalkState(holder, duration, talkStartTime);
+    }
+
+    /**
+     * Show the duration of the member, the chronometer if they are talking, and the start/stop button.
+     */
+    private void bindTalkState(MeetingViewHolder holder, long duration, long talkStartTime) {
+        MeetingMemberListItemBinding binding = holder.binding;
+        MeetingMemberItemData meetingMemberItemData = holder.itemData;
+
+        // if the talkStartTime is non-zero, this means the
+        // member is talking (and started talking that long ago).
+        meetingMemberItemData.isTalking = talkStartTime > 0;
+
+        // If the member is currently talking, update their duration and chatter face at each tick.
         // Otherwise, show the duration that they talked (if any).
         if (meetingMemberItemData.isTalking) {
-            long hasBeenTalkingFor = duration * 1000 + (System.currentTimeMillis() - talkStartTime);
-            binding.tvDuration.setBase(SystemClock.elapsedRealtime() - hasBeenTalkingFor);
-            // Issue #63: for some reason, if we start the chronometer directly, on some devices it
-            // may not appear to update.
-            new Handler().post(binding.tvDuration::start);
             meetingMemberItemData.durationColor = mColorChronoActive;
-            startAnimation(binding.ivChatterFace);
+            binding.ivChatterFace.setVisibility(View.VISIBLE);
+            holder.duration = duration;
+            holder.talkStartTime = talkStartTime;
+            holder.displayedSeconds = -1;
+            holder.onTick(System.currentTimeMillis());
+            mTicker.subscribe(holder);
         } else {
-            binding.tvDuration.stop();
+            mTicker.unsubscribe(holder);
             binding.tvDuration.setText(DateUtils.formatElapsedTime(duration));
             meetingMemberItemData.durationColor = duration > 0 ? mColorChronoInactive : mColorChronoNotStarted;
-            stopAnimation(binding.ivChatterFace);
+            binding.ivChatterFace.setVisibility(View.INVISIBLE);
         }
 
-        @ColorRes int backgroundColorRes = (position % 2 == 0)? R.color.row_background_color_even : R.color.row_background_color_odd;
-        meetingMemberItemData.backgroundColor = ContextCompat.getColor(binding.getRoot().getContext(), backgroundColorRes);
         // Set the member id as a tag, so when the listener receives the
         // click action, it knows for which member the user clicked.
         binding.setItemData(meetingMemberItemData);
         binding.executePendingBindings();
+        ToggleLatency.onBound(meetingMemberItemData.memberId, holder.itemView);
+    }
+
+    private static boolean isTalkStateOnly(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TALK_STATE) return false;
+        }
+        return true;
+    }
+
+    private static List<MemberRow> readRows(Cursor cursor) {
+        List<MemberRow> rows = new ArrayList<>();
+        if (cursor == null) return rows;
+        @SuppressWarnings("resource")
+        MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
+        if (cursorWrapper.moveToFirst()) {
+            do {
+                MemberRow row = new MemberRow();
+                row.memberId = cursorWrapper.getMemberId();
+                row.memberName = cursorWrapper.getMemberName();
+                row.duration = cursorWrapper.getDuration();
+                row.talkStartTime = cursorWrapper.getTalkStartTime();
+                row.meetingState = cursorWrapper.getMeetingState();
+                rows.add(row);
+            } while (cursorWrapper.moveToNext());
+        }
+        return rows;
+    }
+
+    private static boolean hasSameMembers(List<MemberRow> rows1, List<MemberRow> rows2) {
+        if (rows1.size() != rows2.size()) return false;
+        for (int i = 0; i < rows1.size(); i++) {
+            if (rows1.get(i).memberId != rows2.get(i).memberId) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The fields of a row of the cursor which we display.
+     */
+    private static class MemberRow {
+        long memberId;
+        String memberName;
+        long duration;
+        long talkStartTime;
+        State meetingState;
+    }
+
+    @Override
+    public void onViewRecycled(MeetingViewHolder holder) {
+        mTicker.unsubscribe(holder);
     }
 
     public static class MeetingMemberItemData {
@@ -145,52 +299,34 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
 
     }
 
-    /**
-     * Show the imageView and start its animation drawable.
-     */
-    private void startAnimation(final ImageView imageView) {
-        if (imageView.getVisibility() != View.VISIBLE) {
-            Log.v(TAG, "startAnimation");
-            imageView.setVisibility(View.VISIBLE);
-            final AnimationDrawable animationDrawable = (AnimationDrawable) imageView.getDrawable();
-            // On some devices, directly calling start() on the animation does not work.
-            // We have to wait until the ImageView is visible before starting the animation.
-            imageView.getViewTreeObserver().addOnGlobalLayoutListener(new OnGlobalLayoutListener() {
-                @SuppressWarnings("deprecation")
-                @Override
-                public void onGlobalLayout() {
-                    if (!animationDrawable.isRunning()) {
-                        imageView.post(() -> {
-                            animationDrawable.setVisible(true, false);
-                            animationDrawable.start();
-                        });
-                    }
-                    imageView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                }
-            });
-        }
-    }
-
-    /**
-     * Stop the animation drawable on this imageView and hide the imageView.
-     */
-    private void stopAnimation(final ImageView imageView) {
-        if (imageView.getVisibility() == View.VISIBLE) {
-            Log.v(TAG, "stopAnimation");
-            imageView.setVisibility(View.INVISIBLE);
-            final AnimationDrawable animationDrawable = (AnimationDrawable) imageView.getDrawable();
-            animationDrawable.setVisible(false, false);
-        }
-    }
-
-    static class MeetingViewHolder extends RecyclerView.ViewHolder{
+    static class MeetingViewHolder extends RecyclerView.ViewHolder implements MeetingTicker.Listener {
 
         public final MeetingMemberListItemBinding binding;
+        MeetingMemberItemData itemData;
+        // The talk state of the member, while they are talking.
+        long duration;
+        long talkStartTime;
+        long displayedSeconds;
 
         MeetingViewHolder(MeetingMemberListItemBinding binding) {
             super(binding.getRoot());
             this.binding = binding;
         }
+
+        /**
+         * Show the time the member has been talking, and the next frame of the chatter face.
+         */
+        @Override
+        public void onTick(long now) {
+            long seconds = duration + (now - talkStartTime) / 1000;
+            if (seconds != displayedSeconds) {
+                displayedSeconds = seconds;
+                binding.tvDuration.setText(DateUtils.formatElapsedTime(seconds));
+            }
+            AnimationDrawable chatterFace = (AnimationDrawable) binding.ivChatterFace.getDrawable();
+            int frame = (int) ((now - talkStartTime) / MeetingTicker.TICK_MS % chatterFace.getNumberOfFrames());
+            chatterFace.selectDrawable(frame);
+        }
     }
 
 }
@@ -26,8 +26,8 @@ import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.SystemClock;
 import android.support.annotation.MainThread;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
@@ -47,6 +47,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import ca.rmen.android.scrumchatter.BuildConfig;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
@@ -55,6 +56,7 @@ import ca.rmen.android.scrumchatter.provider.MeetingColumns;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
 import ca.rmen.android.scrumchatter.provider.MemberColumns;
+import ca.rmen.android.scrumchatter.settings.Prefs;
 import io.reactivex.Completable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
@@ -69,9 +71,15 @@ public class MeetingFragment extends Fragment {
     private MeetingCursorAdapter mAdapter;
     private final MeetingObserver mMeetingObserver;
     private Meeting mMeeting;
+    private MeetingSession mSession;
+    private boolean mIsLoadingSession;
     private long mMeetingId;
     private Meetings mMeetings;
     private MeetingFragmentBinding mBinding;
+    private MeetingTicker mTicker;
+    private Timebox mTimebox;
+    private boolean mCanUndo;
+    private boolean mCanRedo;
 
     /**
      * @return the {@link MeetingFragment} added to the given {@link FragmentManager}, if any.
@@ -114,6 +122,8 @@ public class MeetingFragment extends Fragment {
         mBinding = DataBindingUtil.inflate(inflater, R.layout.meeting_fragment, container, false);
         mBinding.setMeetingStopListener(new MeetingStopListener());
         mBinding.recyclerViewContent.recyclerView.setLayoutManager(new LinearLayoutManager(getContext(), LinearLayoutManager.VERTICAL, false));
+        mTicker = new MeetingTicker(mBinding.getRoot());
+        updateTicker();
         mMeetingId = getArguments().getLong(Meetings.EXTRA_MEETING_ID);
         if (!TAG.endsWith("" + mMeetingId)) TAG += "/" + mMeetingId;
 
@@ -124,10 +134,29 @@ public class MeetingFragment extends Fragment {
         return mBinding.getRoot();
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        updateTicker();
+    }
+
+    @Override
+    public void onPause() {
+        // Don't wait to save the talk state: the process may be killed once we're in the background.
+        if (mSession != null) mSession.flush();
+        super.onPause();
+        updateTicker();
+    }
+
     @Override
     public void onDestroyView() {
         Log.v(TAG, "onDestroyView");
         getActivity().getContentResolver().unregisterContentObserver(mMeetingObserver);
+        // The session stays in memory, for the next screen of this meeting.
+        if (mSession != null) {
+            MeetingSessions.getInstance(getContext()).release(mSession);
+            mSession = null;
+        }
         super.onDestroyView();
     }
 
@@ -144,6 +173,20 @@ public class MeetingFragment extends Fragment {
         // Delete a meeting in any state.
         final MenuItem deleteItem = menu.findItem(R.id.action_delete_meeting);
         if (deleteItem != null) deleteItem.setVisible(mMeeting != null);
+        // Undo and redo toggles while the meeting isn't finished.
+        final MenuItem undoItem = menu.findItem(R.id.action_undo);
+        if (undoItem != null) {
+            undoItem.setVisible(mSession != null);
+            undoItem.setEnabled(mCanUndo);
+        }
+        final MenuItem redoItem = menu.findItem(R.id.action_redo);
+        if (redoItem != null) {
+            redoItem.setVisible(mSession != null);
+            redoItem.setEnabled(mCanRedo);
+        }
+        // The latency measures are only for debugging.
+        final MenuItem latencyItem = menu.findItem(R.id.action_latency_meeting);
+        if (latencyItem != null) latencyItem.setVisible(BuildConfig.DEBUG);
     }
 
     @Override
@@ -167,6 +210,15 @@ public class MeetingFragment extends Fragment {
             case R.id.action_delete_meeting:
                 mMeetings.confirmDelete(mMeeting);
                 return true;
+            case R.id.action_undo:
+                if (mSession != null) onTalkStateChanged(mSession.undo());
+                return true;
+            case R.id.action_redo:
+                if (mSession != null) onTalkStateChanged(mSession.redo());
+                return true;
+            case R.id.action_latency_meeting:
+                DialogFragmentFactory.showInfoDialog(getActivity(), getString(R.string.action_latency), ToggleLatency.dump());
+                return true;
             default:
                 super.onOptionsItemSelected(item);
                 return false;
@@ -182,6 +234,14 @@ public class MeetingFragment extends Fragment {
         Log.v(TAG, "setUserVisibleHint: " + isVisibleToUser);
         super.setUserVisibleHint(isVisibleToUser);
         setHasOptionsMenu(isVisibleToUser && mMeeting != null);
+        updateTicker();
+    }
+
+    /**
+     * Only update the chronometers while this meeting is the one on the screen.
+     */
+    private void updateTicker() {
+        if (mTicker != null) mTicker.setActive(isResumed() && getUserVisibleHint());
     }
 
     /**
@@ -198,7 +258,7 @@ public class MeetingFragment extends Fragment {
         Bundle bundle = new Bundle(1);
         bundle.putSerializable(Meetings.EXTRA_MEETING_STATE, meetingState);
         if (mAdapter == null) {
-            mAdapter = new MeetingCursorAdapter(activity, mMemberStartStopListener);
+            mAdapter = new MeetingCursorAdapter(activity, mMemberStartStopListener, mTicker);
             mBinding.recyclerViewContent.recyclerView.setAdapter(mAdapter);
             getLoaderManager().initLoader((int) mMeetingId, bundle, mLoaderCallbacks);
         } else {
@@ -207,10 +267,78 @@ public class MeetingFragment extends Fragment {
 
         mMeetings.readMeeting(mMeetingId)
                 .doOnSuccess(meeting -> mMeeting = meeting)
-                .subscribe(this::displayMeeting,
+                .subscribe(meeting -> {
+                            displayMeeting(meeting);
+                            loadSession(meeting);
+                        },
                         throwable -> activity.getContentResolver().unregisterContentObserver(mMeetingObserver));
     }
 
+    /**
+     * Get the talk state of the members, if the meeting isn't finished and we don't have it yet. It's read in the background,
+     * unless another screen of this meeting already did.
+     */
+    @MainThread
+    private void loadSession(Meeting meeting) {
+        if (meeting.getState() == State.FINISHED) {
+            setSession(null);
+        } else if (mSession == null && !mIsLoadingSession) {
+            mIsLoadingSession = true;
+            MeetingSessions meetingSessions = MeetingSessions.getInstance(getContext());
+            meetingSessions.getSession(meeting)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(session -> {
+                        mIsLoadingSession = false;
+                        if (getView() == null) meetingSessions.release(session);
+                        else
+                            setSession(session);
+                    }, throwable -> {
+                        mIsLoadingSession = false;
+                        Log.v(TAG, "Couldn't load the session for meeting " + meeting, throwable);
+                    });
+        }
+    }
+
+    @MainThread
+    private void setSession(MeetingSession session) {
+        Log.v(TAG, "setSession " + session);
+        if (mSession != null && mSession != session) MeetingSessions.getInstance(getContext()).release(mSession);
+        mSession = session;
+        mAdapter.setSession(session);
+        updateUndoRedo();
+        if (session == null) {
+            cancelTimebox();
+        } else if (mTimebox == null) {
+            startTimebox(session);
+        }
+    }
+
+    /**
+     * Alert when the member talking, or the meeting, goes over the timebox in the settings, if any.
+     */
+    @MainThread
+    private void startTimebox(MeetingSession session) {
+        Prefs prefs = Prefs.getInstance(getContext());
+        long now = System.currentTimeMillis();
+        Timebox timebox = new Timebox(prefs.getMemberTimeboxSeconds(), prefs.getMeetingTimeboxMinutes(), mTimeboxListener, now);
+        if (!timebox.isEnabled()) return;
+        mTimebox = timebox;
+        long talkingMemberId = session.getTalkingMemberId();
+        if (talkingMemberId >= 0) {
+            mTimebox.setTalkState(talkingMemberId, session.getDuration(talkingMemberId), session.getTalkStartTime(talkingMemberId));
+        }
+        if (mMeeting.getState() == State.IN_PROGRESS) mTimebox.setMeetingStartDate(mMeeting.getStartDate(), now);
+        mTicker.subscribe(mTimebox);
+    }
+
+    @MainThread
+    private void cancelTimebox() {
+        if (mTimebox == null) return;
+        mTimebox.cancel();
+        mTicker.unsubscribe(mTimebox);
+        mTimebox = null;
+    }
+
     @MainThread
     private void displayMeeting(Meeting meeting) {
         FragmentActivity activity = getActivity();
@@ -230,13 +358,13 @@ public class MeetingFragment extends Fragment {
 
         // Update the chronometer
         if (meeting.getState() == State.IN_PROGRESS) {
-            // If the meeting is in progress, show the Chronometer.
-            long timeSinceMeetingStartedMillis = System.currentTimeMillis() - meeting.getStartDate();
-            mBinding.tvMeetingDuration.setBase(SystemClock.elapsedRealtime() - timeSinceMeetingStartedMillis);
-            mBinding.tvMeetingDuration.start();
-        } else if (meeting.getState() == State.FINISHED) {
+            // If the meeting is in progress, update the duration at each tick.
+            mMeetingDurationListener.onTick(System.currentTimeMillis());
+            mTicker.subscribe(mMeetingDurationListener);
+            if (mTimebox != null) mTimebox.setMeetingStartDate(meeting.getStartDate(), System.currentTimeMillis());
+        } else {
             // For finished meetings, show the duration we retrieved from the db.
-            mBinding.tvMeetingDuration.stop();
+            mTicker.unsubscribe(mMeetingDurationListener);
             mBinding.tvMeetingDuration.setText(DateUtils.formatElapsedTime(meeting.getDuration()));
         }
     }
@@ -254,7 +382,39 @@ public class MeetingFragment extends Fragment {
      * chronometers for all team members who are still talking.
      */
     public void stopMeeting() {
-        Schedulers.io().scheduleDirect(() -> mMeeting.stop());
+        cancelTimebox();
+        if (mSession != null) mSession.stop();
+        else
+            Schedulers.io().scheduleDirect(() -> mMeeting.stop());
+        updateUndoRedo();
+    }
+
+    /**
+     * Update the rows and the timeboxes of the given members, after their talk state changed in the session.
+     */
+    @MainThread
+    private void onTalkStateChanged(long... memberIds) {
+        mAdapter.notifyTalkStateChanged(memberIds);
+        if (mTimebox != null) {
+            for (long memberId : memberIds) {
+                mTimebox.setTalkState(memberId, mSession.getDuration(memberId), mSession.getTalkStartTime(memberId));
+            }
+        }
+        updateUndoRedo();
+    }
+
+    /**
+     * Refresh the undo and redo actions, if they are enabled or disabled by the last change.
+     */
+    @MainThread
+    private void updateUndoRedo() {
+        boolean canUndo = mSession != null && mSession.canUndo();
+        boolean canRedo = mSession != null && mSession.canRedo();
+        if (canUndo == mCanUndo && canRedo == mCanRedo) return;
+        mCanUndo = canUndo;
+        mCanRedo = canRedo;
+        FragmentActivity activity = getActivity();
+        if (activity != null) activity.supportInvalidateOptionsMenu();
     }
 
     /**
@@ -342,6 +502,41 @@ public class MeetingFragment extends Fragment {
         }
     }
 
+    /**
+     * Shows the time since the meeting started.
+     */
+    private final MeetingTicker.Listener mMeetingDurationListener = new MeetingTicker.Listener() {
+        private long mDisplayedSeconds = -1;
+
+        @Override
+        public void onTick(long now) {
+            long seconds = (now - mMeeting.getStartDate()) / 1000;
+            if (seconds != mDisplayedSeconds) {
+                mDisplayedSeconds = seconds;
+                mBinding.tvMeetingDuration.setText(DateUtils.formatElapsedTime(seconds));
+            }
+        }
+    };
+
+    /**
+     * Shows an alert when a timebox is exceeded.
+     */
+    private final Timebox.Listener mTimeboxListener = new Timebox.Listener() {
+        @Override
+        public void onMemberTimeboxExceeded(long memberId) {
+            String memberName = mAdapter.getMemberName(memberId);
+            if (memberName == null) return;
+            Log.v(TAG, "onMemberTimeboxExceeded " + memberId);
+            Snackbar.make(mBinding.getRoot(), getString(R.string.timebox_member_exceeded, memberName), Snackbar.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onMeetingTimeboxExceeded() {
+            Log.v(TAG, "onMeetingTimeboxExceeded");
+            Snackbar.make(mBinding.getRoot(), R.string.timebox_meeting_exceeded, Snackbar.LENGTH_LONG).show();
+        }
+    };
+
     /**
      * Manage clicks on items inside the meeting fragment.
      */
@@ -355,10 +550,15 @@ public class MeetingFragment extends Fragment {
          */
         public void toggleTalkingMember(final long memberId) {
             Log.v(TAG, "toggleTalkingMember " + memberId);
-            Schedulers.io().scheduleDirect(() -> {
-                if (mMeeting.getState() != State.IN_PROGRESS) mMeeting.start();
-                mMeeting.toggleTalkingMember(memberId);
-            });
+            if (mSession == null) {
+                Log.v(TAG, "The meeting isn't loaded yet");
+                return;
+            }
+            // Only the member who was talking, and this member, need to be updated.
+            long previousTalkingMemberId = mSession.getTalkingMemberId();
+            ToggleLatency.onToggle(ToggleLatency.now(), previousTalkingMemberId, memberId);
+            mSession.toggleTalkingMember(memberId);
+            onTalkStateChanged(previousTalkingMemberId, memberId);
         }
     };
 
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.TalkSegmentColumns;
+import ca.rmen.android.scrumchatter.provider.TalkStateWrite;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * A small file, mapped in memory, which records the toggles of a {@link MeetingSession} which weren't written to the DB yet.
+ *
+ * Recording a toggle only writes to the mapped memory: the OS writes it to the file, even if our process is killed.
+ * If the process dies before the session writes its changes, the toggles are replayed into the DB the next time the meeting
+ * is loaded, or the next time the app starts.
+ *
+ * The file has a header, followed by the toggle events (member id, time). The header contains the number of events, and
+ * two commit records: the number of events which were written to the DB, with the member who was talking at that point.
+ * A new commit record is written to the slot which isn't used, before switching to it, so the file always contains a
+ * complete commit record.
+ */
+public class MeetingJournal {
+    private static final String TAG = Constants.TAG + "/" + MeetingJournal.class.getSimpleName();
+
+    private static final String DIRECTORY = "meeting_journal";
+    private static final String EXTENSION = ".journal";
+
+    private static final int MAGIC = 0x53434a31;
+    private static final int SIZE = 4096;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_MEETING_ID = 4;
+    private static final int OFFSET_COMMIT_SLOT = 12;
+    private static final int OFFSET_EVENT_COUNT = 16;
+    // Each commit record has the number of events written to the DB, the member who was talking, and since when.
+    private static final int OFFSET_COMMIT_RECORDS = 20;
+    private static final int COMMIT_RECORD_SIZE = 20;
+    private static final int HEADER_SIZE = 64;
+    private static final int EVENT_SIZE = 16;
+    private static final int CAPACITY = (SIZE - HEADER_SIZE) / EVENT_SIZE;
+
+    private static final long NO_MEMBER = -1;
+
+    // The meetings whose journal is used by a session in this process. These journals must not be replayed.
+    private static final Set<Long> sOpenMeetingIds = new HashSet<>();
+
+    /**
+     * A turn which ended after the last commit record.
+     */
+    static class Turn {
+        final long memberId;
+        final long startTime;
+        final long endTime;
+
+        Turn(long memberId, long startTime, long endTime) {
+            this.memberId = memberId;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+
+    /**
+     * The changes of a journal which may not be written to the DB.
+     */
+    static class Recovery {
+        final long meetingId;
+        final List<Turn> turns = new ArrayList<>();
+        // The member who is talking after the last event, or -1.
+        long talkingMemberId;
+        long talkStartTime;
+
+        private Recovery(long meetingId) {
+            this.meetingId = meetingId;
+        }
+    }
+
+    private final File mFile;
+    private final long mMeetingId;
+    private final MappedByteBuffer mBuffer;
+    // The events which are being written to the DB, or are written: they can't be removed anymore.
+    private int mCapturedEventCount;
+
+    private MeetingJournal(File file, long meetingId, MappedByteBuffer buffer) {
+        mFile = file;
+        mMeetingId = meetingId;
+        mBuffer = buffer;
+    }
+
+    /**
+     * Create an empty journal for the given meeting. Any previous journal of this meeting must have been replayed with
+     * {@link #recover(Context, long)}.
+     *
+     * @param talkingMemberId the member who is talking according to the DB, or -1.
+     * @param talkStartTime   the time they started talking, according to the DB.
+     */
+    static MeetingJournal open(Context context, long meetingId, long talkingMemberId, long talkStartTime) throws IOException {
+        return open(getFile(context, meetingId), meetingId, talkingMemberId, talkStartTime);
+    }
+
+    /**
+     * Create an empty journal for the given meeting, in the given file.
+     */
+    static MeetingJournal open(File file, long meetingId, long talkingMemberId, long talkStartTime) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+        MappedByteBuffer buffer = map(file);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putLong(OFFSET_MEETING_ID, meetingId);
+        buffer.putInt(OFFSET_EVENT_COUNT, 0);
+        putCommitRecord(buffer, 0, 0, talkingMemberId, talkStartTime);
+        buffer.putInt(OFFSET_COMMIT_SLOT, 0);
+        synchronized (MeetingJournal.class) {
+            sOpenMeetingIds.add(meetingId);
+        }
+        Log.v(TAG, "open " + file);
+        return new MeetingJournal(file, meetingId, buffer);
+    }
+
+    /**
+     * Record a toggle of the given member.
+     *
+     * @return false if the journal is full: the changes which weren't written to the DB can't be recovered.
+     */
+    synchronized boolean append(long memberId, long time) {
+        int eventCount = mBuffer.getInt(OFFSET_EVENT_COUNT);
+        if (eventCount == CAPACITY) {
+            Log.v(TAG, "The journal of meeting " + mMeetingId + " is full");
+            return false;
+        }
+        int offset = HEADER_SIZE + eventCount * EVENT_SIZE;
+        mBuffer.putLong(offset, memberId);
+        mBuffer.putLong(offset + 8, time);
+        // The event is only part of the journal once the count includes it.
+        mBuffer.putInt(OFFSET_EVENT_COUNT, eventCount + 1);
+        return true;
+    }
+
+    /**
+     * @return the number of events recorded. Pass it to {@link #commit(int, long, long)} once the changes up to this event
+     * are written to the DB.
+     */
+    synchronized int getEventCount() {
+        mCapturedEventCount = mBuffer.getInt(OFFSET_EVENT_COUNT);
+        return mCapturedEventCount;
+    }
+
+    /**
+     * Remove the last event, after its toggle was undone.
+     *
+     * @return false if the last event is written to the DB, or being written: the undo has to be written to the DB instead.
+     */
+    synchronized boolean removeLast() {
+        int eventCount = mBuffer.getInt(OFFSET_EVENT_COUNT);
+        if (eventCount <= mCapturedEventCount) return false;
+        mBuffer.putInt(OFFSET_EVENT_COUNT, eventCount - 1);
+        return true;
+    }
+
+    /**
+     * Mark the first eventCount events as written to the DB. If all the events are written, the journal is emptied.
+     *
+     * @param talkingMemberId the member who is talking after these events, or -1.
+     * @param talkStartTime   the time they started talking.
+     */
+    synchronized void commit(int eventCount, long talkingMemberId, long talkStartTime) {
+        if (eventCount == mBuffer.getInt(OFFSET_EVENT_COUNT)) {
+            // If we're killed now, the previous commit record covers all the events: there is nothing to replay.
+            mBuffer.putInt(OFFSET_EVENT_COUNT, 0);
+            eventCount = 0;
+            mCapturedEventCount = 0;
+        }
+        int slot = 1 - mBuffer.getInt(OFFSET_COMMIT_SLOT);
+        putCommitRecord(mBuffer, slot, eventCount, talkingMemberId, talkStartTime);
+        mBuffer.putInt(OFFSET_COMMIT_SLOT, slot);
+    }
+
+    /**
+     * Stop using the journal, without deleting it, because its changes couldn't be written to the DB. The next session of
+     * the meeting replays it: see {@link #recover(Context, long)}.
+     */
+    void close() {
+        synchronized (MeetingJournal.class) {
+            sOpenMeetingIds.remove(mMeetingId);
+        }
+        Log.v(TAG, "close " + mFile);
+    }
+
+    /**
+     * Delete the journal, once the meeting is stopped and all its changes are written to the DB.
+     */
+    void delete() {
+        synchronized (MeetingJournal.class) {
+            sOpenMeetingIds.remove(mMeetingId);
+        }
+        Log.v(TAG, "delete " + mFile);
+        if (!mFile.delete()) Log.v(TAG, "Couldn't delete " + mFile);
+    }
+
+    /**
+     * If the journal of the given meeting contains toggles which weren't written to the DB, write them, and delete the journal.
+     * Does nothing if the journal is used by a session in this process.
+     */
+    @WorkerThread
+    static void recover(Context context, long meetingId) {
+        synchronized (MeetingJournal.class) {
+            if (sOpenMeetingIds.contains(meetingId)) return;
+        }
+        File file = getFile(context, meetingId);
+        if (file.exists()) recoverFile(context, file);
+    }
+
+    /**
+     * Replay the journals of all the meetings which aren't used by a session in this process. To be called when the app starts.
+     */
+    @WorkerThread
+    public static void recoverAll(Context context) {
+        File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(EXTENSION)) continue;
+            long meetingId;
+            try {
+                meetingId = Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                Log.v(TAG, "Unexpected file " + file);
+                continue;
+            }
+            recover(context, meetingId);
+        }
+    }
+
+    @WorkerThread
+    private static void recoverFile(Context context, File file) {
+        Log.v(TAG, "recover " + file);
+        try {
+            Recovery recovery = read(file);
+            if (recovery != null) replay(context, recovery);
+        } catch (Exception e) {
+            // We can't do anything more with this journal: it's corrupt, or the meeting was deleted.
+            Log.v(TAG, "Couldn't replay " + file + ": " + e.getMessage(), e);
+        }
+        if (!file.delete()) Log.v(TAG, "Couldn't delete " + file);
+    }
+
+    /**
+     * Read the turns and the talking member which result from the events after the current commit record.
+     *
+     * @return null if the file isn't a journal, or if all its events are written to the DB.
+     */
+    static Recovery read(File file) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC) return null;
+        int eventCount = Math.min(buffer.getInt(OFFSET_EVENT_COUNT), CAPACITY);
+        int commitOffset = OFFSET_COMMIT_RECORDS + buffer.getInt(OFFSET_COMMIT_SLOT) * COMMIT_RECORD_SIZE;
+        int committedCount = buffer.getInt(commitOffset);
+        if (committedCount >= eventCount) return null;
+        Recovery recovery = new Recovery(buffer.getLong(OFFSET_MEETING_ID));
+        recovery.talkingMemberId = buffer.getLong(commitOffset + 4);
+        recovery.talkStartTime = buffer.getLong(commitOffset + 12);
+        for (int i = committedCount; i < eventCount; i++) {
+            int offset = HEADER_SIZE + i * EVENT_SIZE;
+            long memberId = buffer.getLong(offset);
+            long time = buffer.getLong(offset + 8);
+            if (recovery.talkingMemberId != NO_MEMBER) {
+                recovery.turns.add(new Turn(recovery.talkingMemberId, recovery.talkStartTime, time));
+            }
+            if (memberId == recovery.talkingMemberId) {
+                recovery.talkingMemberId = NO_MEMBER;
+            } else {
+                recovery.talkingMemberId = memberId;
+                recovery.talkStartTime = time;
+            }
+        }
+        return recovery;
+    }
+
+    /**
+     * Write the turns and the talking member of the given recovery.
+     * The turns which are already in the DB are skipped: the DB may have been written just before the commit record.
+     */
+    @WorkerThread
+    private static void replay(Context context, Recovery recovery) {
+        long meetingId = recovery.meetingId;
+        Log.v(TAG, "replay " + recovery.turns.size() + " turns of meeting " + meetingId);
+        TalkStateWrite talkStateWrite = new TalkStateWrite(meetingId);
+        for (Turn turn : recovery.turns) {
+            if (hasSegment(context, meetingId, turn.memberId, turn.startTime)) continue;
+            talkStateWrite.insertTurn(turn.memberId, turn.startTime, turn.endTime);
+        }
+        if (recovery.talkingMemberId != NO_MEMBER) talkStateWrite.setTalkStartTime(recovery.talkingMemberId, recovery.talkStartTime);
+        talkStateWrite.write(context, true);
+    }
+
+    @WorkerThread
+    private static boolean hasSegment(Context context, long meetingId, long memberId, long startTime) {
+        @SuppressLint("Recycle")
+        Cursor cursor = context.getContentResolver().query(TalkSegmentColumns.CONTENT_URI,
+                new String[]{TalkSegmentColumns._ID},
+                TalkSegmentColumns.MEETING_ID + "=? AND " + TalkSegmentColumns.START_TIME + "=? AND " + TalkSegmentColumns.MEMBER_ID + "=?",
+                new String[]{String.valueOf(meetingId), String.valueOf(startTime), String.valueOf(memberId)}, null);
+        if (cursor == null) return false;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void putCommitRecord(MappedByteBuffer buffer, int slot, int eventCount, long talkingMemberId, long talkStartTime) {
+        int offset = OFFSET_COMMIT_RECORDS + slot * COMMIT_RECORD_SIZE;
+        buffer.putInt(offset, eventCount);
+        buffer.putLong(offset + 4, talkingMemberId);
+        buffer.putLong(offset + 12, talkStartTime);
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            // The mapping stays valid after the file is closed.
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static File getFile(Context context, long meetingId) {
+        return new File(new File(context.getFilesDir(), DIRECTORY), meetingId + EXTENSION);
+    }
+}
@@ -22,6 +22,8 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -30,6 +32,9 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentStatePagerAdapter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.Constants;
@@ -41,36 +46,46 @@ import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
 
 /**
- * Adapter for the list of meetings
+ * Adapter for the list of meetings.
+ * The meetings are read one page at a time: more pages are read as the user swipes to the last meetings read so far.
  */
 class MeetingPagerAdapter extends FragmentStatePagerAdapter {
     private static final String TAG = Constants.TAG + "/" + MeetingPagerAdapter.class.getSimpleName();
 
+    private static final int PAGE_SIZE = 50;
+
+    // The pages read so far. The content observer is registered on the first page.
+    private List<Cursor> mPages;
     private MeetingCursorWrapper mCursor;
     private final Context mContext;
     private final MeetingObserver mMeetingObserver;
     private final int mTeamId;
+    private boolean mHasMorePages;
+    private boolean mIsLoadingNextPage;
 
-    private MeetingPagerAdapter(FragmentActivity activity, int teamId, MeetingCursorWrapper cursor) {
+    private MeetingPagerAdapter(FragmentActivity activity, int teamId, List<Cursor> pages, boolean hasMorePages) {
         super(activity.getSupportFragmentManager());
         Log.v(TAG, "Constructor");
         mContext = activity;
         mTeamId = teamId;
         mMeetingObserver = new MeetingObserver(new Handler(Looper.getMainLooper()));
-        mCursor = cursor;
-        mCursor.registerContentObserver(mMeetingObserver);
+        setPages(pages, hasMorePages);
     }
 
-    static Single<MeetingPagerAdapter> create(FragmentActivity activity) {
+    /**
+     * Read the pages of meetings, up to the page containing the given meeting, and create the adapter with them.
+     */
+    static Single<MeetingPagerAdapter> create(FragmentActivity activity, long meetingId) {
         return Single.fromCallable(() -> {
             int teamId = Prefs.getInstance(activity).getTeamId();
-            // Closing the cursor wrapper also closes the cursor
-            @SuppressLint("Recycle")
-            Cursor cursor = activity.getContentResolver().query(MeetingColumns.CONTENT_URI, null, MeetingColumns.TEAM_ID + "=?",
-                    new String[] { String.valueOf(teamId) }, MeetingColumns.MEETING_DATE + " DESC");
-            MeetingCursorWrapper meetingCursorWrapper = new MeetingCursorWrapper(cursor);
-            meetingCursorWrapper.getCount();
-            return new MeetingPagerAdapter(activity, teamId, meetingCursorWrapper);
+            List<Cursor> pages = new ArrayList<>();
+            Cursor page = read(activity, MeetingColumns.getFirstPageUri(MeetingColumns.getTeamContentUri(teamId), PAGE_SIZE));
+            pages.add(page);
+            while (!contains(page, meetingId) && isFull(page)) {
+                page = readNextPage(activity, teamId, new MeetingCursorWrapper(page));
+                pages.add(page);
+            }
+            return new MeetingPagerAdapter(activity, teamId, pages, isFull(page));
         }).subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread());
     }
@@ -108,12 +123,89 @@ class MeetingPagerAdapter extends FragmentStatePagerAdapter {
         return Meeting.read(mContext, mCursor);
     }
 
+    /**
+     * If the given position is near the last meeting read so far, read the next page of meetings.
+     */
+    void onPageSelected(int position) {
+        if (!mHasMorePages || mIsLoadingNextPage || position < getCount() - PAGE_SIZE / 2) return;
+        final MeetingCursorWrapper cursor = mCursor;
+        // Read the last meeting here: the cursor can't be used by a background thread.
+        cursor.moveToLast();
+        final long beforeDate = cursor.getMeetingDate();
+        final long beforeId = cursor.getId();
+        mIsLoadingNextPage = true;
+        Single.fromCallable(() -> read(mContext, MeetingColumns.getNextPageUri(MeetingColumns.getTeamContentUri(mTeamId), PAGE_SIZE, beforeDate, beforeId)))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(nextPage -> {
+                    mIsLoadingNextPage = false;
+                    // The meetings were reloaded while we were reading this page: it may not follow the last page anymore.
+                    if (mCursor != cursor) {
+                        nextPage.close();
+                        return;
+                    }
+                    List<Cursor> pages = new ArrayList<>(mPages);
+                    pages.add(nextPage);
+                    setPages(pages, isFull(nextPage));
+                    notifyDataSetChanged();
+                });
+    }
+
     void destroy() {
         Log.v(TAG, "destroy");
-        mCursor.unregisterContentObserver(mMeetingObserver);
+        mPages.get(0).unregisterContentObserver(mMeetingObserver);
         mCursor.close();
     }
 
+    /**
+     * Use the given pages. The previous pages which aren't in the given list must be closed by the caller.
+     */
+    private void setPages(List<Cursor> pages, boolean hasMorePages) {
+        if (mPages != null) mPages.get(0).unregisterContentObserver(mMeetingObserver);
+        mPages = pages;
+        mHasMorePages = hasMorePages;
+        // Closing the cursor wrapper also closes the pages.
+        if (pages.size() == 1) mCursor = new MeetingCursorWrapper(pages.get(0));
+        else
+            mCursor = new MeetingCursorWrapper(new MergeCursor(pages.toArray(new Cursor[pages.size()])));
+        mPages.get(0).registerContentObserver(mMeetingObserver);
+    }
+
+    /**
+     * @return the page after the given page. The given page is moved to its last meeting.
+     */
+    @WorkerThread
+    private static Cursor readNextPage(Context context, int teamId, MeetingCursorWrapper previousPage) {
+        previousPage.moveToLast();
+        Uri uri = MeetingColumns.getNextPageUri(MeetingColumns.getTeamContentUri(teamId), PAGE_SIZE, previousPage.getMeetingDate(), previousPage.getId());
+        return read(context, uri);
+    }
+
+    @WorkerThread
+    private static Cursor read(Context context, Uri uri) {
+        // Closing the cursor wrapper of the adapter also closes the cursor
+        @SuppressLint("Recycle")
+        Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+        // Fill the cursor window now, while we're on a background thread.
+        //noinspection ConstantConditions
+        cursor.getCount();
+        return cursor;
+    }
+
+    private static boolean isFull(Cursor page) {
+        return page.getCount() == PAGE_SIZE;
+    }
+
+    private static boolean contains(Cursor page, long meetingId) {
+        MeetingCursorWrapper pageWrapper = new MeetingCursorWrapper(page);
+        if (pageWrapper.moveToFirst()) {
+            do {
+                if (pageWrapper.getId() == meetingId) return true;
+            } while (pageWrapper.moveToNext());
+        }
+        return false;
+    }
+
     private class MeetingObserver extends ContentObserver {
 
         private final String TAG = MeetingPagerAdapter.TAG + "/" + MeetingObserver.class.getSimpleName();
@@ -125,33 +217,25 @@ class MeetingPagerAdapter extends FragmentStatePagerAdapter {
 
         /**
          * The Meeting table changed. We need to update our cursor and notify about the change.
+         * We read the same number of meetings as we had read before, in one query.
          */
         @Override
         public void onChange(boolean selfChange) {
             Log.v(TAG, "MeetingObserver onChange, selfChange: " + selfChange);
             super.onChange(selfChange);
-            Single.fromCallable(() -> read(mTeamId))
+            final int count = Math.max(getCount(), PAGE_SIZE);
+            Single.fromCallable(() -> read(mContext, MeetingColumns.getFirstPageUri(MeetingColumns.getTeamContentUri(mTeamId), count)))
                     .subscribeOn(Schedulers.io())
                     .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(meetingCursorWrapper -> {
-                        mCursor.unregisterContentObserver(mMeetingObserver);
-                        mCursor.close();
-                        mCursor = meetingCursorWrapper;
+                    .subscribe(cursor -> {
+                        MeetingCursorWrapper previousCursor = mCursor;
+                        List<Cursor> pages = new ArrayList<>(1);
+                        pages.add(cursor);
+                        setPages(pages, cursor.getCount() == count);
+                        previousCursor.close();
                         notifyDataSetChanged();
-                        mCursor.registerContentObserver(mMeetingObserver);
                     });
         }
-
-        @WorkerThread
-        private MeetingCursorWrapper read(int teamId) {
-            // Closing the cursorWrapper also closes the cursor
-            @SuppressLint("Recycle")
-            Cursor cursor = mContext.getContentResolver().query(MeetingColumns.CONTENT_URI, null, MeetingColumns.TEAM_ID + "=?",
-                    new String[] { String.valueOf(teamId) }, MeetingColumns.MEETING_DATE + " DESC");
-            MeetingCursorWrapper cursorWrapper = new MeetingCursorWrapper(cursor);
-            cursorWrapper.getCount();
-            return cursorWrapper;
-        }
     }
 
 }
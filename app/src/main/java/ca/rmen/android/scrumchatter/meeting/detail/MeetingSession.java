@@ -0,0 +1,588 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
+import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
+import ca.rmen.android.scrumchatter.provider.TalkStateWrite;
+import ca.rmen.android.scrumchatter.util.Log;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * The live state of a meeting which isn't finished: who is talking, since when, and how long each member has talked.
+ *
+ * Toggling the talking member only changes this state in memory. The members whose state changed are written to the DB
+ * shortly after (write-behind), when {@link #flush()} is called, and when the meeting is stopped.
+ * Each finished turn is written as a talk segment, which adds it to the duration of the member. The start time of the member
+ * who is talking is written to the meeting_member table.
+ * All the writes are done on one thread, in the order of the changes.
+ * The last toggles can be undone and redone in memory, like new toggles: see {@link #undo()}.
+ *
+ * The toggles are also recorded in a {@link MeetingJournal}, so they can be recovered if the process dies before they are written.
+ * The journal is created by the first toggle: the sessions of the meetings which are only displayed don't have one.
+ *
+ * There is one session per meeting in progress, shared by the screens which display it: see {@link MeetingSessions}.
+ */
+public class MeetingSession {
+    private static final String TAG = Constants.TAG + "/" + MeetingSession.class.getSimpleName();
+
+    private static final long FLUSH_DELAY_MS = 500;
+    // Doubled after each failed write, up to MAX_RETRY_DELAY_MS.
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+    static final long NO_MEMBER = -1;
+    private static final long[] NO_MEMBERS = new long[0];
+    private static final int HISTORY_SIZE = 32;
+
+    private static class TalkState {
+        // In seconds, like in the DB.
+        long duration;
+        // 0 if the member isn't talking.
+        long talkStartTime;
+    }
+
+    private static class TalkSegment {
+        final long memberId;
+        final long startTime;
+        final long endTime;
+
+        TalkSegment(long memberId, long startTime, long endTime) {
+            this.memberId = memberId;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+
+    private final Context mContext;
+    private final Meeting mMeeting;
+    private final Map<Long, TalkState> mTalkStates;
+    // null until the first toggle, or if the journal couldn't be created.
+    private volatile MeetingJournal mJournal;
+    private boolean mIsJournalOpened;
+    private final Set<Long> mDirtyMemberIds = new LinkedHashSet<>();
+    // The turns which ended since the last write.
+    private final List<TalkSegment> mPendingSegments = new ArrayList<>();
+    // The turns which were written, or are being written, and then undone.
+    private final List<TalkSegment> mDeletedSegments = new ArrayList<>();
+    // The first turns of mPendingSegments and mDeletedSegments which are being written. They're removed once they're written.
+    private int mWritingPendingSegmentCount;
+    private int mWritingDeletedSegmentCount;
+    // The members whose duration and start time must be written as they are in memory, after an undo.
+    private final Set<Long> mCompensatedMemberIds = new LinkedHashSet<>();
+    private final ToggleHistory mHistory = new ToggleHistory(HISTORY_SIZE);
+    private long mTalkingMemberId = NO_MEMBER;
+    private boolean mIsStarted;
+    private boolean mIsStopped;
+    private boolean mIsFlushScheduled;
+    // A closed session doesn't write anymore: the changes which it couldn't write are replayed from its journal.
+    private boolean mIsClosed;
+    // The time of the first toggle which isn't written yet, by the clock of ToggleLatency, or 0.
+    private long mFirstUnwrittenToggleTime;
+    private long mRetryDelayMs = RETRY_DELAY_MS;
+    // Only used on the thread which writes the session.
+    private boolean mHasUnnotifiedWrites;
+
+    private MeetingSession(Context context, Meeting meeting, Map<Long, TalkState> talkStates) {
+        mContext = context.getApplicationContext();
+        mMeeting = meeting;
+        mTalkStates = talkStates;
+        mIsStarted = meeting.getState() == State.IN_PROGRESS;
+        for (Map.Entry<Long, TalkState> entry : talkStates.entrySet()) {
+            if (entry.getValue().talkStartTime > 0) mTalkingMemberId = entry.getKey();
+        }
+    }
+
+    /**
+     * Read the talk state of the members of the given meeting, after writing the toggles which were lost if the
+     * previous session of this meeting was killed.
+     * This must be called on the thread which writes the sessions, so that the previous session of this meeting is written first.
+     */
+    @WorkerThread
+    static MeetingSession load(Context context, Meeting meeting) {
+        Log.v(TAG, "load " + meeting);
+        MeetingJournal.recover(context, meeting.getId());
+        Uri uri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(meeting.getId()));
+        // Closing the cursorWrapper also closes the cursor
+        @SuppressLint("Recycle")
+        Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{MeetingMemberColumns.MEMBER_ID, MeetingMemberColumns.DURATION, MeetingMemberColumns.TALK_START_TIME},
+                null, null, null);
+        Map<Long, TalkState> talkStates = new HashMap<>();
+        if (cursor != null) {
+            MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                while (cursorWrapper.moveToNext()) {
+                    TalkState talkState = new TalkState();
+                    talkState.duration = cursorWrapper.getDuration();
+                    talkState.talkStartTime = cursorWrapper.getTalkStartTime();
+                    talkStates.put(cursorWrapper.getMemberId(), talkState);
+                }
+            } finally {
+                cursorWrapper.close();
+            }
+        }
+        return new MeetingSession(context, meeting, talkStates);
+    }
+
+    public long getMeetingId() {
+        return mMeeting.getId();
+    }
+
+    /**
+     * If the member is talking, stop them. Otherwise, stop the member who is talking, if any, and start this one.
+     * The first toggle starts the meeting.
+     *
+     * @return true if the member is now talking.
+     */
+    @MainThread
+    public synchronized boolean toggleTalkingMember(long memberId) {
+        TalkState talkState = mTalkStates.get(memberId);
+        if (talkState == null) {
+            Log.v(TAG, "toggleTalkingMember: member " + memberId + " isn't in meeting " + mMeeting.getId());
+            return false;
+        }
+        if (mIsStopped) {
+            Log.v(TAG, "toggleTalkingMember: meeting " + mMeeting.getId() + " is being stopped");
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (!mIsStarted) {
+            mIsStarted = true;
+            // The meeting starts when its first turn starts.
+            Schedulers.single().scheduleDirect(() -> mMeeting.start(now));
+        }
+        if (mFirstUnwrittenToggleTime == 0) mFirstUnwrittenToggleTime = ToggleLatency.now();
+        if (!mIsJournalOpened) {
+            // Until now, the DB has the same talk state as the session: it's the starting point of the journal.
+            mIsJournalOpened = true;
+            mJournal = openJournal();
+        }
+        ToggleHistory.Toggle toggle = mHistory.add();
+        toggle.memberId = memberId;
+        toggle.time = now;
+        toggle.previousTalkingMemberId = mTalkingMemberId;
+        toggle.previousTalkStartTime = getTalkStartTime(mTalkingMemberId);
+        toggle.isJournaled = mJournal != null && mJournal.append(memberId, now);
+        boolean isTalking = applyToggle(memberId, now);
+        scheduleFlush(FLUSH_DELAY_MS);
+        return isTalking;
+    }
+
+    /**
+     * Cancel the last toggle which wasn't undone. The member who was talking before it talks again, as if they hadn't been
+     * interrupted, and the member it started stops, without a turn.
+     * If the toggle isn't written yet, it's just removed. Otherwise, the next write deletes its turn, and writes the duration
+     * and the start time of these members.
+     *
+     * @return the members whose talk state changed, or an empty array if there was nothing to undo.
+     */
+    @MainThread
+    public synchronized long[] undo() {
+        if (mIsStopped) return NO_MEMBERS;
+        ToggleHistory.Toggle toggle = mHistory.undo();
+        if (toggle == null) return NO_MEMBERS;
+        Log.v(TAG, "undo toggle of " + toggle.memberId + " at " + toggle.time);
+        if (toggle.memberId != toggle.previousTalkingMemberId) {
+            mTalkStates.get(toggle.memberId).talkStartTime = 0;
+            mCompensatedMemberIds.add(toggle.memberId);
+        }
+        mTalkingMemberId = toggle.previousTalkingMemberId;
+        if (mTalkingMemberId != NO_MEMBER) {
+            TalkState talkState = mTalkStates.get(mTalkingMemberId);
+            talkState.duration -= (toggle.time - toggle.previousTalkStartTime) / 1000;
+            talkState.talkStartTime = toggle.previousTalkStartTime;
+            mCompensatedMemberIds.add(mTalkingMemberId);
+            TalkSegment segment = new TalkSegment(mTalkingMemberId, toggle.previousTalkStartTime, toggle.time);
+            if (!removePendingSegment(segment)) mDeletedSegments.add(segment);
+        }
+        boolean isRemovedFromJournal = toggle.isJournaled && mJournal.removeLast();
+        toggle.isJournaled = false;
+        // If the journal still has the toggle, write the undo now, so that the journal doesn't replay it for long.
+        scheduleFlush(isRemovedFromJournal ? FLUSH_DELAY_MS : 0);
+        return new long[]{toggle.memberId, toggle.previousTalkingMemberId};
+    }
+
+    /**
+     * Apply again the last toggle which was undone, at the time it was first done.
+     *
+     * @return the members whose talk state changed, or an empty array if there was nothing to redo.
+     */
+    @MainThread
+    public synchronized long[] redo() {
+        if (mIsStopped) return NO_MEMBERS;
+        ToggleHistory.Toggle toggle = mHistory.redo();
+        if (toggle == null) return NO_MEMBERS;
+        Log.v(TAG, "redo toggle of " + toggle.memberId + " at " + toggle.time);
+        toggle.isJournaled = mJournal != null && mJournal.append(toggle.memberId, toggle.time);
+        applyToggle(toggle.memberId, toggle.time);
+        scheduleFlush(FLUSH_DELAY_MS);
+        return new long[]{toggle.memberId, toggle.previousTalkingMemberId};
+    }
+
+    public synchronized boolean canUndo() {
+        return !mIsStopped && mHistory.canUndo();
+    }
+
+    public synchronized boolean canRedo() {
+        return !mIsStopped && mHistory.canRedo();
+    }
+
+    /**
+     * Stop the member who is talking, if any. Start the given member, unless they were the one talking.
+     *
+     * @return true if the member is now talking.
+     */
+    private boolean applyToggle(long memberId, long now) {
+        if (mTalkingMemberId == memberId) {
+            stopTalking(now);
+            return false;
+        }
+        stopTalking(now);
+        mTalkStates.get(memberId).talkStartTime = now;
+        mTalkingMemberId = memberId;
+        mDirtyMemberIds.add(memberId);
+        return true;
+    }
+
+    /**
+     * @return true if the given turn wasn't written yet, and isn't being written, and is now removed.
+     */
+    private boolean removePendingSegment(TalkSegment segment) {
+        for (int i = mPendingSegments.size() - 1; i >= mWritingPendingSegmentCount; i--) {
+            TalkSegment pendingSegment = mPendingSegments.get(i);
+            if (pendingSegment.memberId == segment.memberId && pendingSegment.startTime == segment.startTime) {
+                mPendingSegments.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the id of the member who is talking, or -1 if nobody is talking.
+     */
+    public synchronized long getTalkingMemberId() {
+        return mTalkingMemberId;
+    }
+
+    /**
+     * @return true if we have the talk state of the given member.
+     */
+    public synchronized boolean hasMember(long memberId) {
+        return mTalkStates.containsKey(memberId);
+    }
+
+    /**
+     * @return the time, in seconds, that the member talked, not including the time since they started talking, if they are talking.
+     */
+    public synchronized long getDuration(long memberId) {
+        TalkState talkState = mTalkStates.get(memberId);
+        return talkState == null ? 0 : talkState.duration;
+    }
+
+    /**
+     * @return the time the member started talking, or 0 if they aren't talking.
+     */
+    public synchronized long getTalkStartTime(long memberId) {
+        TalkState talkState = mTalkStates.get(memberId);
+        return talkState == null ? 0 : talkState.talkStartTime;
+    }
+
+    /**
+     * Write the changes which weren't written yet, without waiting. Call this when the meeting is no longer displayed.
+     */
+    public synchronized void flush() {
+        scheduleFlush(0);
+    }
+
+    /**
+     * Write the talk state of the members, and stop the meeting. Stopping the meeting in the DB ends the turn of the member who is talking.
+     * If the talk state can't be written, the meeting isn't stopped: it stays in progress, with the changes which will be written again.
+     */
+    void stop() {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            mIsStopped = true;
+        }
+        Schedulers.single().scheduleDirect(() -> {
+            if (!write(false)) {
+                Log.v(TAG, "The talk state of meeting " + mMeeting.getId() + " isn't written: the meeting isn't stopped");
+                synchronized (this) {
+                    mIsStopped = false;
+                    scheduleRetry(true);
+                }
+                return;
+            }
+            // Stopping the meeting is like toggling the member who is talking. The meeting notifies the observers of its members.
+            long talkingMemberId = getTalkingMemberId();
+            MeetingJournal journal = mJournal;
+            if (journal != null && talkingMemberId != NO_MEMBER) journal.append(talkingMemberId, now);
+            mMeeting.stop(now);
+            if (journal != null) journal.delete();
+            MeetingSessions.getInstance(mContext).remove(this);
+        });
+    }
+
+    /**
+     * Drop the changes which weren't written yet, and the journal, because the meeting is deleted.
+     */
+    void discard() {
+        synchronized (this) {
+            mIsStopped = true;
+            mDeletedSegments.clear();
+            mPendingSegments.clear();
+            mWritingDeletedSegmentCount = 0;
+            mWritingPendingSegmentCount = 0;
+            mDirtyMemberIds.clear();
+            mCompensatedMemberIds.clear();
+        }
+        Schedulers.single().scheduleDirect(this::deleteJournal);
+    }
+
+    /**
+     * @return true if the talking member was toggled in this session. Its changes may not be written yet.
+     */
+    synchronized boolean isToggled() {
+        return mIsJournalOpened;
+    }
+
+    /**
+     * @return true if all the changes are written to the DB, and no write is scheduled.
+     */
+    synchronized boolean isIdle() {
+        return !mIsFlushScheduled && mPendingSegments.isEmpty() && mDeletedSegments.isEmpty() && mDirtyMemberIds.isEmpty()
+                && mCompensatedMemberIds.isEmpty();
+    }
+
+    /**
+     * Write the changes which weren't written yet, and delete the journal, once the session isn't used anymore.
+     * The meeting can be displayed again with a new session, read from the DB.
+     * If the changes can't be written, the journal is kept: the next session of the meeting replays it.
+     *
+     * @return true if the changes are written.
+     */
+    @WorkerThread
+    boolean close() {
+        synchronized (this) {
+            mIsStopped = true;
+        }
+        MeetingJournal journal = mJournal;
+        boolean isWritten = write(true);
+        synchronized (this) {
+            mIsClosed = true;
+        }
+        if (isWritten) {
+            if (journal != null) journal.delete();
+            return true;
+        }
+        if (journal != null) journal.close();
+        return false;
+    }
+
+    @WorkerThread
+    private void deleteJournal() {
+        MeetingJournal journal = mJournal;
+        if (journal != null) journal.delete();
+    }
+
+    /**
+     * Stop the member who is talking, if any, add the time they talked to their duration, and record their turn.
+     */
+    private void stopTalking(long now) {
+        if (mTalkingMemberId == NO_MEMBER) return;
+        TalkState talkState = mTalkStates.get(mTalkingMemberId);
+        // Same arithmetic as the trigger which adds the segment to the duration in the DB.
+        talkState.duration += (now - talkState.talkStartTime) / 1000;
+        mPendingSegments.add(new TalkSegment(mTalkingMemberId, talkState.talkStartTime, now));
+        talkState.talkStartTime = 0;
+        mDirtyMemberIds.add(mTalkingMemberId);
+        mTalkingMemberId = NO_MEMBER;
+    }
+
+    /**
+     * The delayed writes, while the meeting is displayed, don't notify the observers: the meeting screen already shows the
+     * talk state of the session, and doesn't need to read the members again. The observers are notified by the flush.
+     */
+    private void scheduleFlush(long delayMs) {
+        if (mIsFlushScheduled && delayMs > 0) return;
+        mIsFlushScheduled = true;
+        final boolean notify = delayMs == 0;
+        Schedulers.single().scheduleDirect(() -> write(notify), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the turns which ended, and the start time of the members who started talking, since the last write, in one transaction.
+     * The turns are written first: a turn resets the start time of the member, unless they started talking again.
+     * The undos are written in the same transaction: their turns are deleted, and the state of their members is overwritten.
+     *
+     * @param notify if true, notify the observers of the members of the meeting, including for the previous writes which didn't.
+     * @return false if the changes couldn't be written. They're kept for the next write.
+     */
+    @WorkerThread
+    private boolean write(boolean notify) {
+        final TalkStateWrite talkStateWrite = new TalkStateWrite(mMeeting.getId());
+        final MeetingJournal journal;
+        final int journalEventCount;
+        final long talkingMemberId;
+        final long talkStartTime;
+        final long firstToggleTime;
+        final Set<Long> dirtyMemberIds;
+        final Set<Long> compensatedMemberIds;
+        synchronized (this) {
+            mIsFlushScheduled = false;
+            if (mIsClosed) return false;
+            firstToggleTime = mFirstUnwrittenToggleTime;
+            mFirstUnwrittenToggleTime = 0;
+            journal = mJournal;
+            journalEventCount = journal == null ? 0 : journal.getEventCount();
+            talkingMemberId = mTalkingMemberId;
+            talkStartTime = getTalkStartTime(mTalkingMemberId);
+            for (TalkSegment segment : mDeletedSegments) {
+                talkStateWrite.deleteTurn(segment.memberId, segment.startTime);
+            }
+            for (TalkSegment segment : mPendingSegments) {
+                talkStateWrite.insertTurn(segment.memberId, segment.startTime, segment.endTime);
+            }
+            for (long memberId : mDirtyMemberIds) {
+                TalkState talkState = mTalkStates.get(memberId);
+                if (talkState.talkStartTime == 0 || mCompensatedMemberIds.contains(memberId)) continue;
+                talkStateWrite.setTalkStartTime(memberId, talkState.talkStartTime);
+            }
+            // After the turns are deleted and inserted, overwrite what the triggers computed for the members of an undo.
+            for (long memberId : mCompensatedMemberIds) {
+                TalkState talkState = mTalkStates.get(memberId);
+                talkStateWrite.setTalkState(memberId, talkState.duration, talkState.talkStartTime);
+            }
+            // The turns stay in their lists until they're written. The members are written with their state at the time of
+            // the write, so they can be marked as dirty again while this write is in progress.
+            mWritingDeletedSegmentCount = mDeletedSegments.size();
+            mWritingPendingSegmentCount = mPendingSegments.size();
+            dirtyMemberIds = new LinkedHashSet<>(mDirtyMemberIds);
+            compensatedMemberIds = new LinkedHashSet<>(mCompensatedMemberIds);
+            mDirtyMemberIds.clear();
+            mCompensatedMemberIds.clear();
+        }
+        if (talkStateWrite.isEmpty()) {
+            // Nothing to write. The previous writes may still need to be notified.
+            if (notify && mHasUnnotifiedWrites) notifyMembers();
+            return true;
+        }
+        Log.v(TAG, "write " + talkStateWrite);
+        try {
+            talkStateWrite.write(mContext, notify);
+        } catch (Exception e) {
+            Log.e(TAG, "Couldn't save the talk state of meeting " + mMeeting.getId() + ": " + e.getMessage(), e);
+            onWriteFailed(dirtyMemberIds, compensatedMemberIds, firstToggleTime, notify);
+            return false;
+        }
+        synchronized (this) {
+            mRetryDelayMs = RETRY_DELAY_MS;
+            // The turns may have been dropped by discard() during the write.
+            mDeletedSegments.subList(0, Math.min(mWritingDeletedSegmentCount, mDeletedSegments.size())).clear();
+            mPendingSegments.subList(0, Math.min(mWritingPendingSegmentCount, mPendingSegments.size())).clear();
+            mWritingDeletedSegmentCount = 0;
+            mWritingPendingSegmentCount = 0;
+        }
+        if (journal != null) journal.commit(journalEventCount, talkingMemberId, talkStartTime);
+        if (firstToggleTime != 0) ToggleLatency.onWritten(firstToggleTime);
+        // A notifying write also notifies the previous writes, which are on the same uri.
+        mHasUnnotifiedWrites = !notify;
+        return true;
+    }
+
+    /**
+     * Keep the changes which couldn't be written, and write them again later, unless the session is being stopped: the
+     * caller handles the failure then. The journal still has their toggles.
+     */
+    @WorkerThread
+    private synchronized void onWriteFailed(Set<Long> dirtyMemberIds, Set<Long> compensatedMemberIds, long firstToggleTime, boolean notify) {
+        mWritingDeletedSegmentCount = 0;
+        mWritingPendingSegmentCount = 0;
+        mDirtyMemberIds.addAll(dirtyMemberIds);
+        mCompensatedMemberIds.addAll(compensatedMemberIds);
+        if (mFirstUnwrittenToggleTime == 0) mFirstUnwrittenToggleTime = firstToggleTime;
+        // The turns which were undone while they were being written aren't in the DB: they only have to be removed.
+        for (Iterator<TalkSegment> iterator = mDeletedSegments.iterator(); iterator.hasNext(); ) {
+            if (removePendingSegment(iterator.next())) iterator.remove();
+        }
+        if (!mIsStopped) scheduleRetry(notify);
+    }
+
+    /**
+     * Write the changes again after a failed write, a bit later each time the write fails again.
+     */
+    private void scheduleRetry(boolean notify) {
+        long delayMs = mRetryDelayMs;
+        mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        Log.v(TAG, "Write meeting " + mMeeting.getId() + " again in " + delayMs + "ms");
+        mIsFlushScheduled = true;
+        Schedulers.single().scheduleDirect(() -> write(notify), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Notify the observers of the members of the meeting, after the writes which didn't.
+     */
+    @WorkerThread
+    private void notifyMembers() {
+        Bundle extras = new Bundle(1);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mMeeting.getId());
+        mContext.getContentResolver().call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_NOTIFY_MEETING_MEMBERS, null, extras);
+        mHasUnnotifiedWrites = false;
+    }
+
+    /**
+     * The journal is a small file, created once per session: this doesn't hold the first toggle for long.
+     */
+    @MainThread
+    private MeetingJournal openJournal() {
+        try {
+            return MeetingJournal.open(mContext, mMeeting.getId(), mTalkingMemberId, getTalkStartTime(mTalkingMemberId));
+        } catch (IOException e) {
+            Log.v(TAG, "Couldn't create the journal of meeting " + mMeeting.getId() + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MeetingSession [meeting=" + mMeeting.getId() + ", talkingMemberId=" + mTalkingMemberId + "]";
+    }
+}
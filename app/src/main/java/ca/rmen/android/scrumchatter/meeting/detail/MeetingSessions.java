@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.util.Log;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * The sessions of the meetings in progress, for all the teams, keyed by meeting id.
+ *
+ * The screens which display a meeting hold its session from {@link #getSession(Meeting)} until {@link #release(MeetingSession)}.
+ * Going back to a meeting reuses its session instead of reading it again from the DB.
+ * A session which was toggled is kept until its meeting is stopped or deleted. The sessions which were only displayed are
+ * forgotten, least recently used first, once more than {@link #MAX_IDLE_SESSIONS} of them aren't held by any screen.
+ */
+public final class MeetingSessions {
+    private static final String TAG = Constants.TAG + "/" + MeetingSessions.class.getSimpleName();
+
+    private static final int MAX_IDLE_SESSIONS = 8;
+
+    private static MeetingSessions INSTANCE;
+    private final Context mContext;
+    // In access order: the least recently used sessions are first.
+    private final Map<Long, MeetingSession> mSessions = new LinkedHashMap<>(16, 0.75f, true);
+    // The number of screens which hold each session.
+    private final Map<Long, Integer> mHolderCounts = new HashMap<>();
+
+    private MeetingSessions(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public static synchronized MeetingSessions getInstance(Context context) {
+        if (INSTANCE == null) INSTANCE = new MeetingSessions(context);
+        return INSTANCE;
+    }
+
+    /**
+     * @return the session of the given meeting, from memory if it's active, or read from the DB. It must be released with
+     * {@link #release(MeetingSession)} when it's not displayed anymore.
+     */
+    Single<MeetingSession> getSession(Meeting meeting) {
+        MeetingSession session = acquire(meeting.getId());
+        if (session != null) return Single.just(session);
+        // Load the session on the thread which writes the sessions: a previous session of this meeting may not be written yet.
+        // This is also the only thread which adds sessions.
+        return Single.fromCallable(() -> load(meeting))
+                .subscribeOn(Schedulers.single());
+    }
+
+    /**
+     * Forget the given session, once its meeting is finished.
+     */
+    synchronized void remove(MeetingSession session) {
+        if (mSessions.get(session.getMeetingId()) == session) {
+            Log.v(TAG, "remove " + session);
+            mSessions.remove(session.getMeetingId());
+            mHolderCounts.remove(session.getMeetingId());
+        }
+    }
+
+    /**
+     * The given session isn't displayed by the caller anymore. It's kept, for the next screen of its meeting.
+     */
+    @MainThread
+    synchronized void release(MeetingSession session) {
+        long meetingId = session.getMeetingId();
+        if (mSessions.get(meetingId) != session) return;
+        Integer holderCount = mHolderCounts.get(meetingId);
+        if (holderCount != null && holderCount > 1) mHolderCounts.put(meetingId, holderCount - 1);
+        else
+            mHolderCounts.remove(meetingId);
+    }
+
+    /**
+     * Forget the session of the given meeting, if any, without writing its changes, because the meeting is deleted.
+     */
+    public void discard(long meetingId) {
+        MeetingSession session;
+        synchronized (this) {
+            session = mSessions.remove(meetingId);
+            mHolderCounts.remove(meetingId);
+        }
+        if (session != null) {
+            Log.v(TAG, "discard " + session);
+            session.discard();
+        }
+    }
+
+    /**
+     * Forget the sessions of the meetings of the given team, without writing their changes, because the team is about to be deleted.
+     */
+    @WorkerThread
+    public void discardTeam(long teamId) {
+        synchronized (this) {
+            if (mSessions.isEmpty()) return;
+        }
+        Cursor cursor = mContext.getContentResolver().query(MeetingColumns.CONTENT_URI, new String[]{BaseColumns._ID},
+                MeetingColumns.TEAM_ID + "=?", new String[]{String.valueOf(teamId)}, null);
+        if (cursor == null) return;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (cursor.moveToNext()) {
+                discard(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write and forget all the sessions, because the DB is about to be replaced. Returns once they're written, so their
+     * changes can't be written to the new DB. The screens which still hold these sessions can't change them anymore.
+     *
+     * @return false if the changes of some sessions couldn't be written: their journals are kept, to be replayed in this DB,
+     * which must not be replaced then.
+     */
+    @WorkerThread
+    public boolean closeAll() {
+        final List<MeetingSession> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<>(mSessions.values());
+            mSessions.clear();
+            mHolderCounts.clear();
+        }
+        Log.v(TAG, "close " + sessions.size() + " sessions");
+        return Single.fromCallable(() -> {
+            boolean isWritten = true;
+            for (MeetingSession session : sessions) {
+                if (!session.close()) isWritten = false;
+            }
+            return isWritten;
+        }).subscribeOn(Schedulers.single()).blockingGet();
+    }
+
+    /**
+     * @return the session of the given meeting, if it's in memory, held by one more screen.
+     */
+    private synchronized MeetingSession acquire(long meetingId) {
+        MeetingSession session = mSessions.get(meetingId);
+        if (session != null) {
+            Integer holderCount = mHolderCounts.get(meetingId);
+            mHolderCounts.put(meetingId, holderCount == null ? 1 : holderCount + 1);
+        }
+        return session;
+    }
+
+    @WorkerThread
+    private MeetingSession load(Meeting meeting) {
+        MeetingSession session = acquire(meeting.getId());
+        if (session != null) return session;
+        session = MeetingSession.load(mContext, meeting);
+        synchronized (this) {
+            mSessions.put(meeting.getId(), session);
+            mHolderCounts.put(meeting.getId(), 1);
+        }
+        evictIdleSessions();
+        return session;
+    }
+
+    /**
+     * Forget the least recently used sessions which no screen holds, and which were never toggled, beyond {@link #MAX_IDLE_SESSIONS}.
+     * The DB already has their talk state.
+     */
+    @WorkerThread
+    private void evictIdleSessions() {
+        List<MeetingSession> evictedSessions = new ArrayList<>();
+        synchronized (this) {
+            List<MeetingSession> idleSessions = new ArrayList<>();
+            for (MeetingSession session : mSessions.values()) {
+                if (!mHolderCounts.containsKey(session.getMeetingId()) && !session.isToggled() && session.isIdle()) idleSessions.add(session);
+            }
+            for (int i = 0; i < idleSessions.size() - MAX_IDLE_SESSIONS; i++) {
+                MeetingSession session = idleSessions.get(i);
+                mSessions.remove(session.getMeetingId());
+                evictedSessions.add(session);
+            }
+        }
+        for (MeetingSession session : evictedSessions) {
+            Log.v(TAG, "evict " + session);
+            session.close();
+        }
+    }
+}
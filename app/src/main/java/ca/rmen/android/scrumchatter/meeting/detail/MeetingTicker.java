@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.support.annotation.MainThread;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * One clock for the chronometers of a meeting screen: the meeting duration, and the members who are talking.
+ *
+ * The views which display a running time subscribe while they are bound, and are updated at each tick. The ticks are posted
+ * on the animation timer of the given view, so they are aligned with the frames, and only run while the screen is active
+ * and at least one view is subscribed.
+ */
+class MeetingTicker {
+    private static final String TAG = Constants.TAG + "/" + MeetingTicker.class.getSimpleName();
+
+    // Half a second, for the chatter face animation. The durations are only redrawn when their text changes.
+    static final long TICK_MS = 500;
+
+    interface Listener {
+        /**
+         * @param now the current time, in milliseconds.
+         */
+        void onTick(long now);
+    }
+
+    private final View mView;
+    private final Set<Listener> mListeners = new LinkedHashSet<>();
+    private final Runnable mTick = this::tick;
+    private boolean mIsActive;
+    private boolean mIsScheduled;
+
+    /**
+     * @param view the ticks are posted on the animation timer of this view.
+     */
+    MeetingTicker(View view) {
+        mView = view;
+    }
+
+    /**
+     * Update the given listener at every tick, until it is unsubscribed.
+     */
+    @MainThread
+    void subscribe(Listener listener) {
+        if (mListeners.add(listener)) schedule();
+    }
+
+    @MainThread
+    void unsubscribe(Listener listener) {
+        if (mListeners.remove(listener) && mListeners.isEmpty()) cancel();
+    }
+
+    /**
+     * Only tick while the screen is visible.
+     */
+    @MainThread
+    void setActive(boolean isActive) {
+        if (mIsActive == isActive) return;
+        Log.v(TAG, "setActive " + isActive);
+        mIsActive = isActive;
+        if (isActive) {
+            // Catch up on the time which passed while we were inactive.
+            tick();
+        } else {
+            cancel();
+        }
+    }
+
+    private void tick() {
+        mIsScheduled = false;
+        long now = System.currentTimeMillis();
+        // A listener may unsubscribe during the tick.
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onTick(now);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (mIsScheduled || !mIsActive || mListeners.isEmpty()) return;
+        mIsScheduled = true;
+        // Tick at the next multiple of TICK_MS, so all the chronometers change at the same frame.
+        long delay = TICK_MS - System.currentTimeMillis() % TICK_MS;
+        ViewCompat.postOnAnimationDelayed(mView, mTick, delay);
+    }
+
+    private void cancel() {
+        if (!mIsScheduled) return;
+        mIsScheduled = false;
+        mView.removeCallbacks(mTick);
+    }
+}
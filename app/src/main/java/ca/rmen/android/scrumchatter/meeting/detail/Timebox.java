@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.support.annotation.MainThread;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Alerts when the member who is talking, or the meeting, goes over its timebox.
+ *
+ * The deadlines are kept in a {@link TimerWheel}, so moving a member's deadline when they start or stop talking doesn't
+ * depend on the number of members. The wheel is advanced by the {@link MeetingTicker} of the screen: there is no other timer.
+ */
+class Timebox implements MeetingTicker.Listener {
+    private static final String TAG = Constants.TAG + "/" + Timebox.class.getSimpleName();
+
+    // 64 slots of one second: most member timeboxes fit in one turn of the wheel.
+    private static final long WHEEL_TICK_MS = 1000;
+    private static final int WHEEL_SLOT_COUNT = 64;
+
+    interface Listener {
+        void onMemberTimeboxExceeded(long memberId);
+
+        void onMeetingTimeboxExceeded();
+    }
+
+    private final TimerWheel mWheel;
+    private final long mMemberTimeboxMs;
+    private final long mMeetingTimeboxMs;
+    private final Listener mListener;
+    private final Map<Long, TimerWheel.Timeout> mMemberTimeouts = new HashMap<>();
+    private final TimerWheel.Timeout mMeetingTimeout;
+
+    /**
+     * @param memberTimeboxSeconds  the time a member may talk in a meeting, or 0 for no timebox.
+     * @param meetingTimeboxMinutes the time a meeting may last, or 0 for no timebox.
+     * @param now                   the current time, in milliseconds.
+     */
+    Timebox(int memberTimeboxSeconds, int meetingTimeboxMinutes, Listener listener, long now) {
+        mMemberTimeboxMs = memberTimeboxSeconds * 1000L;
+        mMeetingTimeboxMs = meetingTimeboxMinutes * 60 * 1000L;
+        mListener = listener;
+        mWheel = new TimerWheel(WHEEL_TICK_MS, WHEEL_SLOT_COUNT, now);
+        mMeetingTimeout = new TimerWheel.Timeout(mListener::onMeetingTimeboxExceeded);
+    }
+
+    /**
+     * @return false if there's neither a member timebox nor a meeting timebox.
+     */
+    boolean isEnabled() {
+        return mMemberTimeboxMs > 0 || mMeetingTimeboxMs > 0;
+    }
+
+    /**
+     * Alert when the meeting which started at the given time goes over its timebox.
+     * If it's already over its timebox, we don't alert again.
+     */
+    @MainThread
+    void setMeetingStartDate(long startDate, long now) {
+        if (mMeetingTimeboxMs <= 0 || mMeetingTimeout.isScheduled()) return;
+        long deadline = startDate + mMeetingTimeboxMs;
+        if (deadline > now) mWheel.schedule(mMeetingTimeout, deadline);
+    }
+
+    /**
+     * Update the deadline of the given member, after they started or stopped talking.
+     *
+     * @param duration      the time, in seconds, that the member talked before their current turn.
+     * @param talkStartTime the time the member started talking, or 0 if they aren't talking.
+     */
+    @MainThread
+    void setTalkState(long memberId, long duration, long talkStartTime) {
+        if (mMemberTimeboxMs <= 0) return;
+        TimerWheel.Timeout timeout = mMemberTimeouts.get(memberId);
+        if (talkStartTime > 0 && duration * 1000 < mMemberTimeboxMs) {
+            if (timeout == null) {
+                timeout = new TimerWheel.Timeout(() -> mListener.onMemberTimeboxExceeded(memberId));
+                mMemberTimeouts.put(memberId, timeout);
+            }
+            mWheel.schedule(timeout, talkStartTime + mMemberTimeboxMs - duration * 1000);
+        } else if (timeout != null) {
+            mWheel.cancel(timeout);
+        }
+    }
+
+    /**
+     * Don't alert anymore.
+     */
+    @MainThread
+    void cancel() {
+        Log.v(TAG, "cancel");
+        for (TimerWheel.Timeout timeout : mMemberTimeouts.values()) {
+            mWheel.cancel(timeout);
+        }
+        mWheel.cancel(mMeetingTimeout);
+    }
+
+    @Override
+    public void onTick(long now) {
+        mWheel.advance(now);
+    }
+}
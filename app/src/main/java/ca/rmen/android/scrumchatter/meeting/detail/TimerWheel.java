@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+/**
+ * A hashed timer wheel: the timeouts are hashed by their deadline into a fixed number of slots, each slot covering one tick.
+ *
+ * Scheduling, rescheduling and cancelling a timeout is O(1): it's moved to the list of another slot. Advancing the wheel by
+ * one tick only looks at the timeouts of one slot, whatever the number of timeouts scheduled.
+ *
+ * The wheel doesn't have a thread or a timer: {@link #advance(long)} is called with the current time by the caller's clock.
+ * It's not thread-safe.
+ */
+class TimerWheel {
+
+    /**
+     * A task which can be scheduled, rescheduled and cancelled any number of times.
+     */
+    static class Timeout {
+        private final Runnable mTask;
+        private long mDeadline;
+        private int mSlot = -1;
+        private Timeout mPrevious;
+        private Timeout mNext;
+
+        Timeout(Runnable task) {
+            mTask = task;
+        }
+
+        boolean isScheduled() {
+            return mSlot >= 0;
+        }
+    }
+
+    private final long mTickMs;
+    // The first timeout of each slot.
+    private final Timeout[] mSlots;
+    private final int mMask;
+    // The last tick processed.
+    private long mTick;
+
+    /**
+     * @param tickMs    the time covered by one slot.
+     * @param slotCount the number of slots, a power of two.
+     * @param now       the current time, in milliseconds.
+     */
+    TimerWheel(long tickMs, int slotCount, long now) {
+        if (Integer.bitCount(slotCount) != 1) throw new IllegalArgumentException("slotCount must be a power of two: " + slotCount);
+        mTickMs = tickMs;
+        mSlots = new Timeout[slotCount];
+        mMask = slotCount - 1;
+        mTick = now / tickMs;
+    }
+
+    /**
+     * Run the task of the given timeout at the first tick at or after the deadline. If the timeout is already scheduled, it's moved.
+     *
+     * @param deadline in milliseconds, by the same clock as the one given to {@link #advance(long)}.
+     */
+    void schedule(Timeout timeout, long deadline) {
+        cancel(timeout);
+        // A deadline in the past runs at the next tick.
+        long tick = Math.max(divideRoundingUp(deadline, mTickMs), mTick + 1);
+        int slot = (int) (tick & mMask);
+        timeout.mDeadline = deadline;
+        timeout.mSlot = slot;
+        timeout.mNext = mSlots[slot];
+        if (timeout.mNext != null) timeout.mNext.mPrevious = timeout;
+        mSlots[slot] = timeout;
+    }
+
+    void cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) return;
+        if (timeout.mPrevious != null) timeout.mPrevious.mNext = timeout.mNext;
+        else
+            mSlots[timeout.mSlot] = timeout.mNext;
+        if (timeout.mNext != null) timeout.mNext.mPrevious = timeout.mPrevious;
+        timeout.mPrevious = null;
+        timeout.mNext = null;
+        timeout.mSlot = -1;
+    }
+
+    /**
+     * Run the tasks of the timeouts whose deadline passed, in the slots of the ticks since the last call.
+     * The timeouts of the same slot which are due in a later round of the wheel stay scheduled.
+     *
+     * @param now the current time, in milliseconds.
+     */
+    void advance(long now) {
+        long targetTick = now / mTickMs;
+        // After a long pause, one turn of the wheel visits all the slots.
+        long tick = Math.max(mTick + 1, targetTick - mMask);
+        for (; tick <= targetTick; tick++) {
+            expire((int) (tick & mMask), now);
+        }
+        mTick = Math.max(mTick, targetTick);
+    }
+
+    private void expire(int slot, long now) {
+        Timeout timeout = mSlots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.mNext;
+            if (timeout.mDeadline <= now) {
+                cancel(timeout);
+                // The task may schedule this timeout again, or other ones.
+                timeout.mTask.run();
+            }
+            timeout = next;
+        }
+    }
+
+    private static long divideRoundingUp(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+/**
+ * The last toggles of a {@link MeetingSession}, in a ring buffer: the toggles which can be undone, followed by the toggles
+ * which were undone and can be redone. When the buffer is full, a new toggle replaces the oldest one, which can't be undone
+ * anymore. The toggles are allocated once, and reused.
+ *
+ * It's not thread-safe: it's used with the lock of the session.
+ */
+class ToggleHistory {
+
+    static class Toggle {
+        long memberId;
+        long time;
+        // The member who was talking before the toggle, and since when.
+        long previousTalkingMemberId;
+        long previousTalkStartTime;
+        // true if the toggle is the last event of the journal, or before an event which is.
+        boolean isJournaled;
+    }
+
+    private final Toggle[] mToggles;
+    // The position after the last toggle which can be undone.
+    private int mHead;
+    private int mUndoCount;
+    private int mRedoCount;
+
+    ToggleHistory(int size) {
+        mToggles = new Toggle[size];
+        for (int i = 0; i < size; i++) {
+            mToggles[i] = new Toggle();
+        }
+    }
+
+    /**
+     * @return the toggle to fill, for a new toggle. The toggles which were undone can't be redone anymore.
+     */
+    Toggle add() {
+        Toggle toggle = mToggles[mHead];
+        mHead = next(mHead);
+        mUndoCount = Math.min(mUndoCount + 1, mToggles.length);
+        mRedoCount = 0;
+        return toggle;
+    }
+
+    /**
+     * @return the last toggle which wasn't undone, or null if there is none.
+     */
+    Toggle undo() {
+        if (mUndoCount == 0) return null;
+        mHead = previous(mHead);
+        mUndoCount--;
+        mRedoCount++;
+        return mToggles[mHead];
+    }
+
+    /**
+     * @return the last toggle which was undone, or null if there is none.
+     */
+    Toggle redo() {
+        if (mRedoCount == 0) return null;
+        Toggle toggle = mToggles[mHead];
+        mHead = next(mHead);
+        mRedoCount--;
+        mUndoCount++;
+        return toggle;
+    }
+
+    boolean canUndo() {
+        return mUndoCount > 0;
+    }
+
+    boolean canRedo() {
+        return mRedoCount > 0;
+    }
+
+    private int next(int position) {
+        return (position + 1) % mToggles.length;
+    }
+
+    private int previous(int position) {
+        return (position + mToggles.length - 1) % mToggles.length;
+    }
+}
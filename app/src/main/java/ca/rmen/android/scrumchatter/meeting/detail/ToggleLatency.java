@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.support.annotation.MainThread;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.LatencyHistogram;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Measures the time from a tap on the start/stop button of a member, to each stage of the update of the meeting:
+ * the row of the member bound, the row drawn, and the toggle written to the DB.
+ */
+public final class ToggleLatency {
+    private static final String TAG = Constants.TAG + "/" + ToggleLatency.class.getSimpleName();
+
+    private static final LatencyHistogram BOUND = new LatencyHistogram("row bound");
+    private static final LatencyHistogram DRAWN = new LatencyHistogram("row drawn");
+    private static final LatencyHistogram WRITTEN = new LatencyHistogram("write committed");
+
+    // The time of the last toggle, for each of its members whose row wasn't bound yet.
+    private static final Map<Long, Long> sToggleTimes = new HashMap<>();
+
+    private ToggleLatency() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return the current time, to be given to the other methods of this class.
+     */
+    static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stamp a toggle of the given members. The stamps of the previous toggle are dropped: the rows which weren't bound since
+     * aren't displayed.
+     *
+     * @param memberIds the members whose rows are updated by the toggle. {@link MeetingSession#NO_MEMBER} is ignored.
+     */
+    @MainThread
+    static void onToggle(long toggleTime, long... memberIds) {
+        sToggleTimes.clear();
+        for (long memberId : memberIds) {
+            if (memberId != MeetingSession.NO_MEMBER) sToggleTimes.put(memberId, toggleTime);
+        }
+    }
+
+    /**
+     * Record the time until the row of the given member is bound, if it's bound for a toggle, and the time until it's drawn.
+     */
+    @MainThread
+    static void onBound(long memberId, View row) {
+        Long toggleTime = sToggleTimes.remove(memberId);
+        if (toggleTime == null) return;
+        record(BOUND, toggleTime);
+        final ViewTreeObserver viewTreeObserver = row.getViewTreeObserver();
+        viewTreeObserver.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (viewTreeObserver.isAlive()) viewTreeObserver.removeOnPreDrawListener(this);
+                record(DRAWN, toggleTime);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Record the time from the given toggle until it's written to the DB.
+     */
+    static void onWritten(long toggleTime) {
+        record(WRITTEN, toggleTime);
+    }
+
+    /**
+     * @return the latencies of each stage.
+     */
+    public static String dump() {
+        String result = BOUND + "\n\n" + DRAWN + "\n\n" + WRITTEN;
+        Log.d(TAG, result);
+        return result;
+    }
+
+    private static void record(LatencyHistogram histogram, long toggleTime) {
+        histogram.record((now() - toggleTime) / 1000);
+    }
+}
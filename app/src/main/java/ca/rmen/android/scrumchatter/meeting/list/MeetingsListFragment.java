@@ -22,6 +22,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
 import android.databinding.DataBindingUtil;
 import android.os.Bundle;
 import android.os.Handler;
@@ -31,10 +33,13 @@ import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.ArrayList;
+
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.databinding.MeetingsBinding;
@@ -44,6 +49,7 @@ import ca.rmen.android.scrumchatter.meeting.detail.Meeting;
 import ca.rmen.android.scrumchatter.meeting.detail.MeetingActivity;
 import ca.rmen.android.scrumchatter.meeting.detail.MeetingFragment;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingCursorWrapper;
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
 
@@ -52,13 +58,21 @@ import ca.rmen.android.scrumchatter.util.Log;
  */
 public class MeetingsListFragment extends Fragment {
     private static final String TAG = Constants.TAG + "/" + MeetingsListFragment.class.getSimpleName();
+    // The loader of the first page of meetings. The loader of page n has the id URL_LOADER + n.
     private static final int URL_LOADER = 0;
+    private static final int PAGE_SIZE = 50;
+    private static final String EXTRA_BEFORE_DATE = "before_date";
+    private static final String EXTRA_BEFORE_ID = "before_id";
+    private static final String EXTRA_PAGE_ARGS = "page_args";
 
     private MeetingsCursorAdapter mAdapter;
     private Prefs mPrefs;
     private Meetings mMeetings;
     private int mTeamId;
     private MeetingsBinding mBinding;
+    // The loaded cursor of each page, and the loader args (the meeting the page starts after) of each page.
+    private final ArrayList<Cursor> mPages = new ArrayList<>();
+    private final ArrayList<Bundle> mPageArgs = new ArrayList<>();
 
     public MeetingsListFragment() {
         super();
@@ -69,10 +83,33 @@ public class MeetingsListFragment extends Fragment {
         mBinding = DataBindingUtil.inflate(inflater, R.layout.meetings, container, false);
         mBinding.meetingList.recyclerViewContent.empty.setText(R.string.empty_list_meetings);
         mBinding.meetingList.recyclerViewContent.recyclerView.setLayoutManager(new LinearLayoutManager(getContext(), LinearLayoutManager.VERTICAL, false));
+        mBinding.meetingList.recyclerViewContent.recyclerView.addOnScrollListener(mOnScrollListener);
         mBinding.meetingList.setFabListener(mFabListener);
         return mBinding.getRoot();
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Reload the pages which were loaded before a configuration change.
+        if (savedInstanceState != null) {
+            ArrayList<Bundle> pageArgs = savedInstanceState.getParcelableArrayList(EXTRA_PAGE_ARGS);
+            if (pageArgs != null) {
+                for (int page = 1; page < pageArgs.size(); page++) {
+                    mPages.add(null);
+                    mPageArgs.add(pageArgs.get(page));
+                    getLoaderManager().initLoader(URL_LOADER + page, pageArgs.get(page), mLoaderCallbacks);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelableArrayList(EXTRA_PAGE_ARGS, mPageArgs);
+    }
+
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
@@ -81,6 +118,10 @@ public class MeetingsListFragment extends Fragment {
         mPrefs = Prefs.getInstance(context);
         mPrefs.register(mPrefsListener);
         mTeamId = mPrefs.getTeamId();
+        mPages.clear();
+        mPageArgs.clear();
+        mPages.add(null);
+        mPageArgs.add(null);
         getLoaderManager().initLoader(URL_LOADER, null, mLoaderCallbacks);
     }
 
@@ -98,10 +139,13 @@ public class MeetingsListFragment extends Fragment {
         @Override
         public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
             Log.v(TAG, "onCreateLoader, loaderId = " + loaderId + ", bundle = " + bundle);
-            String selection = MeetingColumns.TEAM_ID + "=?";
-            String[] selectionArgs = new String[]{String.valueOf(mTeamId)};
-            return new CursorLoader(getActivity(), MeetingColumns.CONTENT_URI, null, selection, selectionArgs, MeetingColumns.MEETING_DATE
-                    + " DESC");
+            Uri uri = MeetingColumns.getTeamContentUri(mTeamId);
+            if (bundle == null) {
+                uri = MeetingColumns.getFirstPageUri(uri, PAGE_SIZE);
+            } else {
+                uri = MeetingColumns.getNextPageUri(uri, PAGE_SIZE, bundle.getLong(EXTRA_BEFORE_DATE), bundle.getLong(EXTRA_BEFORE_ID));
+            }
+            return new CursorLoader(getActivity(), uri, null, null, null, null);
         }
 
         @Override
@@ -111,8 +155,12 @@ public class MeetingsListFragment extends Fragment {
                 mAdapter = new MeetingsCursorAdapter(getActivity(), mMeetingListener);
                 mBinding.meetingList.recyclerViewContent.recyclerView.setAdapter(mAdapter);
             }
+            int page = loader.getId() - URL_LOADER;
+            if (page >= mPages.size()) return;
+            mPages.set(page, cursor);
+            updateNextPages(page);
             mBinding.meetingList.recyclerViewContent.progressContainer.setVisibility(View.GONE);
-            mAdapter.changeCursor(cursor);
+            mAdapter.changeCursor(getAllPages());
             if (mAdapter.getItemCount() > 0) {
                 mBinding.meetingList.recyclerViewContent.recyclerView.setVisibility(View.VISIBLE);
                 mBinding.meetingList.recyclerViewContent.empty.setVisibility(View.GONE);
@@ -161,12 +209,95 @@ public class MeetingsListFragment extends Fragment {
         @Override
         public void onLoaderReset(Loader<Cursor> loader) {
             Log.v(TAG, "onLoaderReset " + loader);
+            int page = loader.getId() - URL_LOADER;
+            if (page > 0) {
+                if (page < mPages.size()) mPages.set(page, null);
+                if (mAdapter != null) mAdapter.changeCursor(getAllPages());
+                return;
+            }
             if (mAdapter != null) mAdapter.changeCursor(null);
             mBinding.meetingList.recyclerViewContent.recyclerView.setVisibility(View.GONE);
             mBinding.meetingList.recyclerViewContent.empty.setVisibility(View.VISIBLE);
         }
     };
 
+    /**
+     * The given page was reloaded. If its last meeting changed, the next page has to start after the new last meeting.
+     * If it isn't full anymore, there are no more pages after it.
+     */
+    private void updateNextPages(int page) {
+        if (page + 1 >= mPages.size()) return;
+        Cursor cursor = mPages.get(page);
+        Bundle nextPageArgs = getNextPageArgs(cursor);
+        if (nextPageArgs == null) {
+            for (int i = mPages.size() - 1; i > page; i--) {
+                getLoaderManager().destroyLoader(URL_LOADER + i);
+                mPages.remove(i);
+                mPageArgs.remove(i);
+            }
+        } else {
+            Bundle previousArgs = mPageArgs.get(page + 1);
+            if (previousArgs.getLong(EXTRA_BEFORE_DATE) != nextPageArgs.getLong(EXTRA_BEFORE_DATE)
+                    || previousArgs.getLong(EXTRA_BEFORE_ID) != nextPageArgs.getLong(EXTRA_BEFORE_ID)) {
+                mPageArgs.set(page + 1, nextPageArgs);
+                getLoaderManager().restartLoader(URL_LOADER + page + 1, nextPageArgs, mLoaderCallbacks);
+            }
+        }
+    }
+
+    /**
+     * Start loading the page after the last one, if the last one is loaded and full.
+     */
+    private void loadNextPage() {
+        int lastPage = mPages.size() - 1;
+        Bundle nextPageArgs = getNextPageArgs(mPages.get(lastPage));
+        if (nextPageArgs == null) return;
+        Log.v(TAG, "loadNextPage " + (lastPage + 1) + ": " + nextPageArgs);
+        mPages.add(null);
+        mPageArgs.add(nextPageArgs);
+        getLoaderManager().initLoader(URL_LOADER + lastPage + 1, nextPageArgs, mLoaderCallbacks);
+    }
+
+    /**
+     * @return the loader args for the page after the given page, or null if the page isn't loaded or full.
+     */
+    private static Bundle getNextPageArgs(Cursor page) {
+        if (page == null || page.getCount() < PAGE_SIZE || !page.moveToLast()) return null;
+        MeetingCursorWrapper cursorWrapper = new MeetingCursorWrapper(page);
+        Bundle args = new Bundle(2);
+        args.putLong(EXTRA_BEFORE_DATE, cursorWrapper.getMeetingDate());
+        args.putLong(EXTRA_BEFORE_ID, cursorWrapper.getId());
+        return args;
+    }
+
+    /**
+     * @return one cursor for all the pages loaded so far.
+     */
+    private Cursor getAllPages() {
+        ArrayList<Cursor> loadedPages = new ArrayList<>(mPages.size());
+        for (Cursor page : mPages) {
+            if (page == null) break;
+            loadedPages.add(page);
+        }
+        if (loadedPages.isEmpty()) return null;
+        if (loadedPages.size() == 1) return loadedPages.get(0);
+        return new MergeCursor(loadedPages.toArray(new Cursor[loadedPages.size()]));
+    }
+
+    /**
+     * Load the next page when the user scrolls near the end of the loaded meetings.
+     */
+    private final RecyclerView.OnScrollListener mOnScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (mAdapter == null) return;
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            if (layoutManager.findLastVisibleItemPosition() >= mAdapter.getItemCount() - PAGE_SIZE / 2) {
+                loadNextPage();
+            }
+        }
+    };
+
     private final MeetingsCursorAdapter.MeetingListener mMeetingListener = new MeetingsCursorAdapter.MeetingListener() {
 
         @Override
@@ -191,6 +322,12 @@ public class MeetingsListFragment extends Fragment {
         @Override
         public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
             mTeamId = sharedPreferences.getInt(Constants.PREF_TEAM_ID, Constants.DEFAULT_TEAM_ID);
+            // Start again from the first page of the team.
+            for (int page = mPages.size() - 1; page > 0; page--) {
+                getLoaderManager().destroyLoader(URL_LOADER + page);
+                mPages.remove(page);
+                mPageArgs.remove(page);
+            }
             getLoaderManager().restartLoader(URL_LOADER, null, mLoaderCallbacks);
         }
     };
@@ -96,9 +96,8 @@ public class MembersListFragment extends Fragment {
         public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
             Log.v(TAG, "onCreateLoader, order by " + mOrderByField);
             String[] projection = new String[]{MemberColumns._ID, MemberColumns.NAME, MemberStatsColumns.SUM_DURATION, MemberStatsColumns.AVG_DURATION};
-            String selection = MemberStatsColumns.TEAM_ID + " =? AND " + MemberColumns.DELETED + "=0 ";
-            String[] selectionArgs = new String[]{String.valueOf(mTeamId)};
-            return new CursorLoader(getActivity(), MemberStatsColumns.CONTENT_URI, projection, selection, selectionArgs, mOrderByField);
+            String selection = MemberColumns.DELETED + "=0 ";
+            return new CursorLoader(getActivity(), MemberStatsColumns.getTeamContentUri(mTeamId), projection, selection, null, mOrderByField);
         }
 
         @Override
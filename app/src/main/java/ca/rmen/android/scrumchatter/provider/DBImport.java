@@ -70,7 +70,11 @@ public class DBImport {
         buildInsertOperations(dbImport, MemberColumns.CONTENT_URI, MemberColumns.TABLE_NAME, operations);
         buildInsertOperations(dbImport, MeetingColumns.CONTENT_URI, MeetingColumns.TABLE_NAME, operations);
         buildInsertOperations(dbImport, MeetingMemberColumns.CONTENT_URI, MeetingMemberColumns.TABLE_NAME, operations);
+        // The talk segments are deleted with the meetings, and aren't imported: inserting them would add them again to the
+        // durations of the imported meeting members.
         context.getContentResolver().applyBatch(ScrumChatterProvider.AUTHORITY, operations);
+        // The watermarks of the exports refer to the meetings which were just replaced.
+        Prefs.getInstance(context).removeExportWatermarks();
         // Set the first available team as our selected team
         Cursor c = context.getContentResolver().query(TeamColumns.CONTENT_URI, new String[] { TeamColumns._ID }, null, null, null);
         if (c != null) {
@@ -39,6 +39,46 @@ public class MeetingColumns implements BaseColumns {
 
     static final String DEFAULT_ORDER = _ID;
 
+    /**
+     * The order of the pages of meetings: most recent first.
+     */
+    public static final String PAGE_ORDER = MEETING_DATE + " DESC, " + _ID + " DESC";
+
+    /**
+     * Query parameters to read a page of meetings, in the {@link #PAGE_ORDER}.
+     * The page contains at most {@link #QUERY_PARAMETER_LIMIT} meetings, which come after the meeting with the
+     * given {@link #QUERY_PARAMETER_BEFORE_DATE} and {@link #QUERY_PARAMETER_BEFORE_ID}.
+     */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+    static final String QUERY_PARAMETER_BEFORE_DATE = "before_date";
+    static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+
+    /**
+     * @return the uri for the meetings of the given team. Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(TABLE_NAME).build();
+    }
+
+    /**
+     * @param uri one of the uris of a list of meetings
+     * @return the uri for the first page of meetings, containing at most limit meetings.
+     */
+    public static Uri getFirstPageUri(Uri uri, int limit) {
+        return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+    }
+
+    /**
+     * @param uri one of the uris of a list of meetings
+     * @return the uri for the page of at most limit meetings, which come after the meeting with the given date and id.
+     */
+    public static Uri getNextPageUri(Uri uri, int limit, long beforeDate, long beforeId) {
+        return getFirstPageUri(uri, limit).buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_BEFORE_DATE, String.valueOf(beforeDate))
+                .appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, String.valueOf(beforeId))
+                .build();
+    }
+
     public enum State {
         NOT_STARTED, IN_PROGRESS, FINISHED
     }
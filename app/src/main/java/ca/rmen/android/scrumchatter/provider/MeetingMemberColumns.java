@@ -39,4 +39,11 @@ public class MeetingMemberColumns implements BaseColumns {
     public static final String DURATION = "duration";
     public static final String TALK_START_TIME = "talk_start_time";
 
+    /**
+     * @return the uri for the meeting members of the given team. Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(TABLE_NAME).build();
+    }
+
 }
\ No newline at end of file
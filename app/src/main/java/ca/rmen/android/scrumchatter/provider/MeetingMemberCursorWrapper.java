@@ -57,6 +57,10 @@ public class MeetingMemberCursorWrapper extends CursorWrapper {
         return getLongField(MeetingMemberColumns.TALK_START_TIME);
     }
 
+    public long getMeetingTeamId() {
+        return getLongField(MeetingColumns.TEAM_ID);
+    }
+
     public long getMeetingDate() {
         return getLongField(MeetingColumns.MEETING_DATE);
     }
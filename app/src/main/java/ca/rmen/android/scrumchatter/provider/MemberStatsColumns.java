@@ -22,18 +22,28 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 /**
- * Table, column names, and column types (enums) for the member table.
+ * Table, column names, and column types (enums) for the member_stats table.
  * 
- * A row in this table contains attributes of a single team member.
+ * A row in this table contains attributes of a single team member, as well as
+ * the total and average speaking time of that member across all meetings. This
+ * table is maintained by triggers on the member and meeting_member tables.
  */
 public class MemberStatsColumns implements BaseColumns {
-    static final String VIEW_NAME = "member_stats";
-    public static final Uri CONTENT_URI = Uri.parse(ScrumChatterProvider.CONTENT_URI_BASE + "/" + VIEW_NAME);
+    static final String TABLE_NAME = "member_stats";
+    public static final Uri CONTENT_URI = Uri.parse(ScrumChatterProvider.CONTENT_URI_BASE + "/" + TABLE_NAME);
 
     private static final String _ID = BaseColumns._ID;
     public static final String TEAM_ID = "team_id";
     public static final String SUM_DURATION = "sum_duration";
     public static final String AVG_DURATION = "avg_duration";
+    public static final String MEETING_COUNT = "meeting_count";
 
     static final String DEFAULT_ORDER = _ID;
+
+    /**
+     * @return the uri for the member stats of the given team. Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(TABLE_NAME).build();
+    }
 }
\ No newline at end of file
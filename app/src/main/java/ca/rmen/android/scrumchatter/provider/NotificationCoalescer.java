@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Collects the uris changed by the provider, and notifies them once.
+ *
+ * Uris are collected per thread with {@link #add(Uri)}, until the thread's transaction is over and {@link #commit()} is called.
+ * The committed uris are then notified together after a short delay, so that consecutive writes (for example starting a meeting
+ * and then the first member talking) only trigger one reload of the loaders.
+ * A uri is notified only once per flush, and not at all if one of its parent uris is also notified.
+ */
+class NotificationCoalescer {
+    private static final String TAG = Constants.TAG + "/" + NotificationCoalescer.class.getSimpleName();
+
+    private static final long FLUSH_DELAY_MS = 50;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadLocal<Set<Uri>> mTransactionUris = new ThreadLocal<Set<Uri>>() {
+        @Override
+        protected Set<Uri> initialValue() {
+            return new LinkedHashSet<>();
+        }
+    };
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mFlushScheduled;
+    private long mRequestedCount;
+    private long mDeliveredCount;
+
+    NotificationCoalescer(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Mark the given uri as changed by the current thread. It will be notified after the next call to {@link #commit()} from this thread.
+     */
+    void add(Uri uri) {
+        mTransactionUris.get().add(uri);
+        synchronized (this) {
+            mRequestedCount++;
+        }
+    }
+
+    /**
+     * The current thread's changes are persisted: schedule the notification of the uris it changed.
+     */
+    void commit() {
+        Set<Uri> transactionUris = mTransactionUris.get();
+        if (transactionUris.isEmpty()) return;
+        synchronized (this) {
+            mPendingUris.addAll(transactionUris);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+            }
+        }
+        transactionUris.clear();
+    }
+
+    /**
+     * @return the number of uris which were marked as changed, notified, and not notified because they were redundant.
+     */
+    synchronized Bundle getStats() {
+        Bundle result = new Bundle(3);
+        result.putLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_REQUESTED, mRequestedCount);
+        result.putLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_DELIVERED, mDeliveredCount);
+        result.putLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_SUPPRESSED, mRequestedCount - mDeliveredCount);
+        return result;
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            List<Uri> urisToNotify = new ArrayList<>();
+            synchronized (NotificationCoalescer.this) {
+                for (Uri uri : mPendingUris) {
+                    if (!hasParentIn(uri, mPendingUris)) urisToNotify.add(uri);
+                }
+                mPendingUris.clear();
+                mFlushScheduled = false;
+                mDeliveredCount += urisToNotify.size();
+            }
+            for (Uri uri : urisToNotify) {
+                Log.v(TAG, "notify uri " + uri);
+                mContext.getContentResolver().notifyChange(uri, null);
+            }
+        }
+    };
+
+    /**
+     * @return true if one of the given uris is a parent of the given uri. Observers of the uri will be notified when the parent is notified.
+     */
+    private static boolean hasParentIn(Uri uri, Set<Uri> uris) {
+        List<String> pathSegments = uri.getPathSegments();
+        for (Uri otherUri : uris) {
+            List<String> otherPathSegments = otherUri.getPathSegments();
+            if (otherPathSegments.size() < pathSegments.size()
+                    && uri.getAuthority().equals(otherUri.getAuthority())
+                    && pathSegments.subList(0, otherPathSegments.size()).equals(otherPathSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Reads the statistics which the provider keeps in debug builds: the notifications, the cached statements, and the time spent in
+ * each statement.
+ */
+public final class ProviderStats {
+    private static final String TAG = Constants.TAG + "/" + ProviderStats.class.getSimpleName();
+
+    private static final String QUERY_STATS_FILE = "query_stats.txt";
+
+    private ProviderStats() {
+        // prevent instantiation
+    }
+
+    /**
+     * Write the report of the query stats to a file in the cache directory, which can be pulled from the device.
+     *
+     * @return a report of all the statistics of the provider.
+     */
+    @WorkerThread
+    public static String dump(Context context) {
+        ContentResolver contentResolver = context.getContentResolver();
+        StringBuilder report = new StringBuilder();
+        Bundle notificationStats = contentResolver.call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_NOTIFICATION_STATS, null, null);
+        if (notificationStats != null) {
+            report.append("Notifications: ")
+                    .append(notificationStats.getLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_REQUESTED)).append(" requested, ")
+                    .append(notificationStats.getLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_DELIVERED)).append(" delivered, ")
+                    .append(notificationStats.getLong(ScrumChatterProvider.EXTRA_NOTIFICATIONS_SUPPRESSED)).append(" suppressed\n");
+        }
+        Bundle statementStats = contentResolver.call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_STATEMENT_STATS, null, null);
+        if (statementStats != null) {
+            report.append("Statements: ")
+                    .append(statementStats.getLong(ScrumChatterProvider.EXTRA_STATEMENTS_REUSED)).append(" reused, ")
+                    .append(statementStats.getLong(ScrumChatterProvider.EXTRA_STATEMENTS_COMPILED)).append(" compiled\n");
+        }
+        File file = new File(context.getCacheDir(), QUERY_STATS_FILE);
+        Bundle dumpResult = contentResolver.call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_DUMP_QUERY_STATS, file.getAbsolutePath(), null);
+        if (dumpResult != null) report.append("Query stats written to ").append(dumpResult.getString(ScrumChatterProvider.EXTRA_FILE)).append('\n');
+        Bundle queryStats = contentResolver.call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_QUERY_STATS, null, null);
+        if (queryStats != null) report.append('\n').append(queryStats.getString(ScrumChatterProvider.EXTRA_QUERY_STATS));
+        String result = report.toString();
+        Log.d(TAG, result);
+        return result;
+    }
+}
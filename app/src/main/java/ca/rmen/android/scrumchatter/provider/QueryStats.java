@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import ca.rmen.android.scrumchatter.BuildConfig;
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Times the statements executed by the provider.
+ *
+ * The statements are grouped by shape: the sql, with the numbers replaced by "?". For each shape, we keep the number of executions,
+ * the total and maximum time, and the number of rows read or changed.
+ * The slowest statements are also kept, with the query plan of the queries, in a log of limited size.
+ *
+ * The stats are only kept in debug builds: the provider doesn't build the sql of its statements, or call this class, unless
+ * {@link #ENABLED} is true.
+ */
+class QueryStats {
+    private static final String TAG = Constants.TAG + "/" + QueryStats.class.getSimpleName();
+
+    static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final long SLOW_STATEMENT_NS = 50 * 1000 * 1000;
+    private static final int MAX_SHAPES = 100;
+    private static final int MAX_SLOW_STATEMENTS = 20;
+    private static final Pattern NUMBER = Pattern.compile("\\b\\d+\\b");
+
+    private static class ShapeStats {
+        long count;
+        long totalNs;
+        long maxNs;
+        long rows;
+    }
+
+    private static class SlowStatement {
+        long date;
+        String sql;
+        String[] args;
+        long durationNs;
+        int rows;
+        List<String> plan;
+    }
+
+    // The least recently executed shapes are removed first.
+    private final Map<String, ShapeStats> mShapes = new LinkedHashMap<String, ShapeStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ShapeStats> eldest) {
+            return size() > MAX_SHAPES;
+        }
+    };
+    private final ArrayDeque<SlowStatement> mSlowStatements = new ArrayDeque<>(MAX_SLOW_STATEMENTS);
+
+    /**
+     * Record the execution of a query. If it was slow, its query plan is read from the given database.
+     *
+     * @param startNs the value of {@link System#nanoTime()} when the query started.
+     */
+    void recordQuery(SQLiteDatabase db, String sql, String[] args, int rows, long startNs) {
+        long durationNs = System.nanoTime() - startNs;
+        List<String> plan = durationNs >= SLOW_STATEMENT_NS ? explain(db, sql, args) : null;
+        record(sql, args, rows, durationNs, plan);
+    }
+
+    /**
+     * Record the execution of a statement which changed the given number of rows.
+     *
+     * @param startNs the value of {@link System#nanoTime()} when the statement started.
+     */
+    void recordUpdate(String sql, String[] args, int rows, long startNs) {
+        record(sql, args, rows, System.nanoTime() - startNs, null);
+    }
+
+    private void record(String sql, String[] args, int rows, long durationNs, List<String> plan) {
+        Log.v(TAG, sql + ": " + Arrays.toString(args) + ": " + rows + " rows in " + durationNs / 1000 + "us");
+        String shape = NUMBER.matcher(sql).replaceAll("?");
+        synchronized (this) {
+            ShapeStats shapeStats = mShapes.get(shape);
+            if (shapeStats == null) {
+                shapeStats = new ShapeStats();
+                mShapes.put(shape, shapeStats);
+            }
+            shapeStats.count++;
+            shapeStats.totalNs += durationNs;
+            shapeStats.maxNs = Math.max(shapeStats.maxNs, durationNs);
+            shapeStats.rows += rows;
+            if (durationNs >= SLOW_STATEMENT_NS) {
+                SlowStatement slowStatement = new SlowStatement();
+                slowStatement.date = System.currentTimeMillis();
+                slowStatement.sql = sql;
+                slowStatement.args = args;
+                slowStatement.durationNs = durationNs;
+                slowStatement.rows = rows;
+                slowStatement.plan = plan;
+                if (mSlowStatements.size() == MAX_SLOW_STATEMENTS) mSlowStatements.removeFirst();
+                mSlowStatements.addLast(slowStatement);
+            }
+        }
+    }
+
+    /**
+     * @return the query plan of the given query, one line per step.
+     */
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            // The last column is the description of the step.
+            int detailIndex = cursor.getColumnCount() - 1;
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } catch (SQLiteException e) {
+            Log.v(TAG, "Couldn't explain " + sql + ": " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * @return a text report of the statements, the most expensive shapes first, followed by the slow statements.
+     */
+    synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("count\ttotal ms\tavg ms\tmax ms\trows\tsql\n");
+        List<Map.Entry<String, ShapeStats>> shapes = new ArrayList<>(mShapes.entrySet());
+        Collections.sort(shapes, (entry1, entry2) -> Long.valueOf(entry2.getValue().totalNs).compareTo(entry1.getValue().totalNs));
+        for (Map.Entry<String, ShapeStats> entry : shapes) {
+            ShapeStats shapeStats = entry.getValue();
+            report.append(String.format(Locale.US, "%d\t%.1f\t%.2f\t%.1f\t%d\t%s\n",
+                    shapeStats.count,
+                    toMs(shapeStats.totalNs),
+                    toMs(shapeStats.totalNs / shapeStats.count),
+                    toMs(shapeStats.maxNs),
+                    shapeStats.rows,
+                    entry.getKey()));
+        }
+        report.append("\nSlow statements (").append(toMs(SLOW_STATEMENT_NS)).append(" ms or more):\n");
+        for (SlowStatement slowStatement : mSlowStatements) {
+            report.append(String.format(Locale.US, "%s\t%.1f ms\t%d rows\t%s\t%s\n",
+                    new Date(slowStatement.date),
+                    toMs(slowStatement.durationNs),
+                    slowStatement.rows,
+                    slowStatement.sql,
+                    Arrays.toString(slowStatement.args)));
+            if (slowStatement.plan != null) {
+                for (String step : slowStatement.plan) {
+                    report.append("\t\t").append(step).append('\n');
+                }
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Write the report to the given file.
+     *
+     * @return true if the file was written.
+     */
+    boolean dump(File file) {
+        String report = getReport();
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write(report);
+            return true;
+        } catch (IOException e) {
+            Log.v(TAG, "Couldn't write the query stats to " + file + ": " + e.getMessage(), e);
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.v(TAG, "Couldn't close " + file + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static double toMs(long ns) {
+        return ns / 1000000.0;
+    }
+}
@@ -18,12 +18,20 @@
  */
 package ca.rmen.android.scrumchatter.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.R;
 
@@ -34,7 +42,7 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
     private static final String TAG = Constants.TAG + ScrumChatterDatabase.class.getSimpleName();
 
     public static final String DATABASE_NAME = "scrumchatter.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 6;
 
     private static final String TEMP_SUFFIX = "_temp";
 
@@ -161,7 +169,7 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
     private static final String SQL_DROP_TABLE_MEETING = "DROP TABLE " + MeetingColumns.TABLE_NAME;
     private static final String SQL_DROP_TABLE_MEETING_TEMP = "DROP TABLE " + MeetingColumns.TABLE_NAME + TEMP_SUFFIX;
     private static final String SQL_CREATE_VIEW_MEMBER_STATS = "CREATE VIEW "
-            + MemberStatsColumns.VIEW_NAME + " AS " + " SELECT "
+            + MemberStatsColumns.TABLE_NAME + " AS " + " SELECT "
             + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " AS " + MemberColumns._ID + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.NAME + " AS " + MemberColumns.NAME + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + " AS " + MemberColumns.DELETED + ", "
@@ -178,7 +186,163 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
             + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.TEAM_ID;
 
-    private static final String SQL_DROP_VIEW_MEMBER_STATS = "DROP VIEW " + MemberStatsColumns.VIEW_NAME;
+    private static final String SQL_DROP_VIEW_MEMBER_STATS = "DROP VIEW " + MemberStatsColumns.TABLE_NAME;
+
+    private static final String SQL_CREATE_TABLE_MEMBER_STATS = "CREATE TABLE IF NOT EXISTS "
+            + MemberStatsColumns.TABLE_NAME
+            + " ( "
+            + MemberColumns._ID
+            + " INTEGER PRIMARY KEY, "
+            + MemberColumns.NAME
+            + " TEXT, "
+            + MemberColumns.DELETED
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + MemberStatsColumns.TEAM_ID
+            + " INTEGER NOT NULL, "
+            + MemberStatsColumns.SUM_DURATION
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + MemberStatsColumns.MEETING_COUNT
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + MemberStatsColumns.AVG_DURATION
+            + " REAL NOT NULL DEFAULT 0, "
+            + " CONSTRAINT MEMBER_ID_FK FOREIGN KEY (" + MemberColumns._ID + ") REFERENCES " + MemberColumns.TABLE_NAME + "(" + MemberColumns._ID + ") ON DELETE CASCADE"
+            + " );";
+
+    // Fill the member_stats table from the existing meeting_member data.  This is the
+    // same aggregation the member_stats view used to do on every query.
+    private static final String SQL_INSERT_TABLE_MEMBER_STATS = "INSERT INTO "
+            + MemberStatsColumns.TABLE_NAME
+            + " SELECT "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.NAME + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.TEAM_ID + ", "
+            + " IFNULL(SUM(" + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + "), 0),"
+            + " COUNT(" + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + "),"
+            + " IFNULL(AVG(" + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + "), 0)"
+            + " FROM "
+            + MemberColumns.TABLE_NAME + " LEFT OUTER JOIN "
+            + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID
+            + " AND " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + "> 0"
+            + " GROUP BY "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns._ID;
+
+    // Covers the list of meetings for a team, sorted by date.
+    private static final String SQL_CREATE_INDEX_MEETING_TEAM_DATE = "CREATE INDEX IF NOT EXISTS "
+            + "meeting_team_date_idx ON " + MeetingColumns.TABLE_NAME
+            + " (" + MeetingColumns.TEAM_ID + ", " + MeetingColumns.MEETING_DATE + ");";
+
+    // Covers the lookups of the (non-deleted) members of a team, by name.
+    private static final String SQL_CREATE_INDEX_MEMBER_TEAM_DELETED_NAME = "CREATE INDEX IF NOT EXISTS "
+            + "member_team_deleted_name_idx ON " + MemberColumns.TABLE_NAME
+            + " (" + MemberColumns.TEAM_ID + ", " + MemberColumns.DELETED + ", " + MemberColumns.NAME + ");";
+
+    // Covers the meeting_member rows of a member: the deletes which cascade from the members of a deleted team, and the
+    // one-off backfill of member_stats in the v4 upgrade. The member_stats triggers don't read meeting_member.
+    private static final String SQL_CREATE_INDEX_MEETING_MEMBER_MEMBER_DURATION = "CREATE INDEX IF NOT EXISTS "
+            + "meeting_member_member_duration_idx ON " + MeetingMemberColumns.TABLE_NAME
+            + " (" + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ");";
+
+    // Covers the member_stats lookups for a team.
+    private static final String SQL_CREATE_INDEX_MEMBER_STATS_TEAM_DELETED = "CREATE INDEX IF NOT EXISTS "
+            + "member_stats_team_deleted_idx ON " + MemberStatsColumns.TABLE_NAME
+            + " (" + MemberStatsColumns.TEAM_ID + ", " + MemberColumns.DELETED + ");";
+
+    private static final String SQL_CREATE_TRIGGER_MEMBER_INSERT = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_member_insert AFTER INSERT ON " + MemberColumns.TABLE_NAME
+            + " BEGIN "
+            + " INSERT OR REPLACE INTO " + MemberStatsColumns.TABLE_NAME
+            + " (" + MemberColumns._ID + ", " + MemberColumns.NAME + ", " + MemberColumns.DELETED + ", " + MemberStatsColumns.TEAM_ID + ")"
+            + " VALUES (NEW." + MemberColumns._ID + ", NEW." + MemberColumns.NAME + ", NEW." + MemberColumns.DELETED + ", NEW." + MemberColumns.TEAM_ID + ");"
+            + " END;";
+
+    private static final String SQL_CREATE_TRIGGER_MEMBER_UPDATE = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_member_update AFTER UPDATE OF "
+            + MemberColumns.NAME + ", " + MemberColumns.DELETED + ", " + MemberColumns.TEAM_ID
+            + " ON " + MemberColumns.TABLE_NAME
+            + " BEGIN "
+            + " UPDATE " + MemberStatsColumns.TABLE_NAME + " SET "
+            + MemberColumns.NAME + " = NEW." + MemberColumns.NAME + ", "
+            + MemberColumns.DELETED + " = NEW." + MemberColumns.DELETED + ", "
+            + MemberStatsColumns.TEAM_ID + " = NEW." + MemberColumns.TEAM_ID
+            + " WHERE " + MemberColumns._ID + " = NEW." + MemberColumns._ID + ";"
+            + " END;";
+
+    private static final String SQL_CREATE_TRIGGER_MEETING_MEMBER_INSERT = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_meeting_member_insert AFTER INSERT ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN "
+            + getUpdateMemberStatsStatements("NEW", "+")
+            + " END;";
+
+    private static final String SQL_CREATE_TRIGGER_MEETING_MEMBER_UPDATE = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_meeting_member_update AFTER UPDATE OF "
+            + MeetingMemberColumns.DURATION + ", " + MeetingMemberColumns.MEMBER_ID
+            + " ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN "
+            + getUpdateMemberStatsStatements("OLD", "-")
+            + getUpdateMemberStatsStatements("NEW", "+")
+            + " END;";
+
+    private static final String SQL_CREATE_TRIGGER_MEETING_MEMBER_DELETE = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_meeting_member_delete AFTER DELETE ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN "
+            + getUpdateMemberStatsStatements("OLD", "-")
+            + " END;";
+
+    private static final String SQL_CREATE_TABLE_TALK_SEGMENT = "CREATE TABLE IF NOT EXISTS "
+            + TalkSegmentColumns.TABLE_NAME
+            + " ( "
+            + TalkSegmentColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + TalkSegmentColumns.MEETING_ID + " INTEGER NOT NULL, "
+            + TalkSegmentColumns.MEMBER_ID + " INTEGER NOT NULL, "
+            + TalkSegmentColumns.START_TIME + " INTEGER NOT NULL, "
+            + TalkSegmentColumns.END_TIME + " INTEGER NOT NULL"
+            + ", CONSTRAINT MEETING_ID_FK FOREIGN KEY (MEETING_ID) REFERENCES MEETING(_ID) ON DELETE CASCADE "
+            + ", CONSTRAINT MEMBER_ID_FK FOREIGN KEY (MEMBER_ID) REFERENCES MEMBER(_ID) ON DELETE CASCADE"
+            + " );";
+
+    // Covers the turns of a meeting, in order.
+    private static final String SQL_CREATE_INDEX_TALK_SEGMENT_MEETING_START = "CREATE INDEX IF NOT EXISTS "
+            + "talk_segment_meeting_start_idx ON " + TalkSegmentColumns.TABLE_NAME
+            + " (" + TalkSegmentColumns.MEETING_ID + ", " + TalkSegmentColumns.START_TIME + ");";
+
+    // When a turn ends, add it to the member's duration, and mark the member as not talking, unless they already started another turn.
+    private static final String SQL_CREATE_TRIGGER_TALK_SEGMENT_INSERT = "CREATE TRIGGER IF NOT EXISTS "
+            + "talk_segment_insert AFTER INSERT ON " + TalkSegmentColumns.TABLE_NAME
+            + " BEGIN "
+            + " UPDATE " + MeetingMemberColumns.TABLE_NAME + " SET "
+            + MeetingMemberColumns.DURATION + " = " + MeetingMemberColumns.DURATION
+            + " + (NEW." + TalkSegmentColumns.END_TIME + " - NEW." + TalkSegmentColumns.START_TIME + ") / 1000, "
+            + MeetingMemberColumns.TALK_START_TIME + " = CASE WHEN " + MeetingMemberColumns.TALK_START_TIME + " = NEW." + TalkSegmentColumns.START_TIME
+            + " THEN 0 ELSE " + MeetingMemberColumns.TALK_START_TIME + " END"
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + " = NEW." + TalkSegmentColumns.MEETING_ID
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = NEW." + TalkSegmentColumns.MEMBER_ID + ";"
+            + " END;";
+
+    // The member_stats table and the triggers which keep it up to date.
+    private static final String[] SQL_CREATE_MEMBER_STATS = {
+            SQL_CREATE_TABLE_MEMBER_STATS,
+            SQL_CREATE_TRIGGER_MEMBER_INSERT,
+            SQL_CREATE_TRIGGER_MEMBER_UPDATE,
+            SQL_CREATE_TRIGGER_MEETING_MEMBER_INSERT,
+            SQL_CREATE_TRIGGER_MEETING_MEMBER_UPDATE,
+            SQL_CREATE_TRIGGER_MEETING_MEMBER_DELETE
+    };
+
+    // The indexes used by the most frequent queries of the provider.
+    private static final String[] SQL_CREATE_INDEXES = {
+            SQL_CREATE_INDEX_MEETING_TEAM_DATE,
+            SQL_CREATE_INDEX_MEMBER_TEAM_DELETED_NAME,
+            SQL_CREATE_INDEX_MEETING_MEMBER_MEMBER_DURATION,
+            SQL_CREATE_INDEX_MEMBER_STATS_TEAM_DELETED
+    };
+
+    // The talk_segment table, and the trigger which adds the segments to the durations of the members.
+    private static final String[] SQL_CREATE_TALK_SEGMENTS = {
+            SQL_CREATE_TABLE_TALK_SEGMENT,
+            SQL_CREATE_INDEX_TALK_SEGMENT_MEETING_START,
+            SQL_CREATE_TRIGGER_TALK_SEGMENT_INSERT
+    };
 
     private final Context mContext;
 
@@ -190,14 +354,27 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.d(TAG, "onCreate");
-        execSQL(db, SQL_CREATE_TABLE_TEAM);
-        execSQL(db, SQL_CREATE_TABLE_MEETING_MEMBER);
-        execSQL(db, SQL_CREATE_TABLE_MEMBER);
-        execSQL(db, SQL_CREATE_TABLE_MEETING);
-        execSQL(db, SQL_CREATE_VIEW_MEMBER_STATS);
+        for (String sql : getCreateStatements()) {
+            execSQL(db, sql);
+        }
         insertDefaultTeam(db);
     }
 
+    /**
+     * @return the statements which create the tables, indexes, and triggers of the latest version of the database, in order.
+     */
+    static List<String> getCreateStatements() {
+        List<String> result = new ArrayList<>();
+        result.add(SQL_CREATE_TABLE_TEAM);
+        result.add(SQL_CREATE_TABLE_MEETING_MEMBER);
+        result.add(SQL_CREATE_TABLE_MEMBER);
+        result.add(SQL_CREATE_TABLE_MEETING);
+        Collections.addAll(result, SQL_CREATE_MEMBER_STATS);
+        Collections.addAll(result, SQL_CREATE_INDEXES);
+        Collections.addAll(result, SQL_CREATE_TALK_SEGMENTS);
+        return result;
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
@@ -228,6 +405,43 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
             execSQL(db, SQL_DROP_VIEW_MEMBER_STATS);
             execSQL(db, SQL_CREATE_VIEW_MEMBER_STATS);
         }
+
+        if (oldVersion < 4) {
+            // Replace the member_stats view with a table maintained by triggers
+            execSQL(db, SQL_DROP_VIEW_MEMBER_STATS);
+            execSQL(db, SQL_CREATE_MEMBER_STATS);
+            execSQL(db, SQL_INSERT_TABLE_MEMBER_STATS);
+        }
+
+        if (oldVersion < 5) {
+            execSQL(db, SQL_CREATE_INDEXES);
+        }
+
+        if (oldVersion < 6) {
+            // The turns of the existing meetings weren't recorded: they only have their durations.
+            execSQL(db, SQL_CREATE_TALK_SEGMENTS);
+        }
+    }
+
+    /**
+     * Enable write-ahead logging, unless the user disabled it in the settings. With write-ahead logging, the loaders can
+     * read the database while a meeting is being updated.
+     * The log is checkpointed automatically by the framework, every db_wal_autocheckpoint pages (100 by default). Our writes
+     * are a few rows per toggle, so this keeps the log short without a policy of our own. The log is only checkpointed
+     * explicitly before the database file is copied: see {@link #checkpoint()}.
+     * The setting is applied the next time the database is opened. Before Jelly Bean, this isn't called: the database keeps
+     * the rollback journal, and the setting is hidden.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        boolean writeAheadLoggingEnabled = Prefs.getInstance(mContext).isWriteAheadLoggingEnabled();
+        Log.d(TAG, "onConfigure: writeAheadLoggingEnabled = " + writeAheadLoggingEnabled);
+        if (writeAheadLoggingEnabled) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -236,9 +450,55 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
         if (!db.isReadOnly()) {
             // Enable foreign key constraints
             db.execSQL("PRAGMA foreign_keys=ON;");
+            // Fire the delete triggers when a meeting_member row is replaced (ON CONFLICT REPLACE),
+            // so the member_stats table stays consistent.
+            db.execSQL("PRAGMA recursive_triggers=ON;");
         }
     }
 
+    /**
+     * Copy all the content of the write-ahead log into the database file. This is needed before copying the
+     * database file. If write-ahead logging is disabled, this does nothing.
+     */
+    void checkpoint() {
+        Log.d(TAG, "checkpoint");
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(FULL);", null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            if (cursor.moveToFirst()) {
+                Log.v(TAG, "checkpoint: busy = " + cursor.getInt(0) + ", log = " + cursor.getInt(1) + ", checkpointed = " + cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void execSQL(SQLiteDatabase db, String[] statements) {
+        for (String sql : statements) {
+            execSQL(db, sql);
+        }
+    }
+
+    /**
+     * @param row "NEW" or "OLD": the meeting_member row, inside a trigger.
+     * @param operator "+" to add the row's duration to the member's stats, "-" to remove it.
+     * @return the statements to update the sum, count, and average of the member's speaking time. Rows with no duration are ignored, as in
+     * the original member_stats view.
+     */
+    private static String getUpdateMemberStatsStatements(String row, String operator) {
+        String memberId = row + "." + MeetingMemberColumns.MEMBER_ID;
+        String duration = row + "." + MeetingMemberColumns.DURATION;
+        return " UPDATE " + MemberStatsColumns.TABLE_NAME + " SET "
+                + MemberStatsColumns.SUM_DURATION + " = " + MemberStatsColumns.SUM_DURATION + " " + operator + " " + duration + ", "
+                + MemberStatsColumns.MEETING_COUNT + " = " + MemberStatsColumns.MEETING_COUNT + " " + operator + " 1"
+                + " WHERE " + MemberColumns._ID + " = " + memberId + " AND " + duration + " > 0;"
+                + " UPDATE " + MemberStatsColumns.TABLE_NAME + " SET "
+                + MemberStatsColumns.AVG_DURATION + " = CASE WHEN " + MemberStatsColumns.MEETING_COUNT + " > 0"
+                + " THEN CAST(" + MemberStatsColumns.SUM_DURATION + " AS REAL) / " + MemberStatsColumns.MEETING_COUNT
+                + " ELSE 0 END"
+                + " WHERE " + MemberColumns._ID + " = " + memberId + " AND " + duration + " > 0;";
+    }
+
     /**
      * Insert the default team
      */
@@ -26,27 +26,32 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
-import java.lang.reflect.Field;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.util.Log;
-import io.reactivex.Observable;
 
 /**
  * Provider for the Scrum Chatter app. This provider provides access to the
- * member, meeting, and meeting_member tables, and the member_stats view.
+ * team, member, meeting, meeting_member, and member_stats tables.
  * 
  * Part of this class was generated using the Android Content Provider
  * Generator: https://github.com/BoD/android-contentprovider-generator
@@ -59,6 +64,145 @@ public class ScrumChatterProvider extends ContentProvider {
 
     public static final String AUTHORITY = "ca.rmen.android.scrumchatter.provider";
     static final String CONTENT_URI_BASE = "content://" + AUTHORITY;
+    public static final Uri CONTENT_URI = Uri.parse(CONTENT_URI_BASE);
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: copy the content of the write-ahead log into the database file.
+     */
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: stop the meeting given by {@link #EXTRA_MEETING_ID}, at the time given by
+     * {@link #EXTRA_NOW}, in milliseconds. The turn of the member who is talking ends, and the meeting is finished, in one transaction.
+     */
+    public static final String METHOD_STOP_MEETING = "stop_meeting";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: write the talk state of the members of the meeting given by
+     * {@link #EXTRA_MEETING_ID}, in one transaction, with compiled statements. In this order:
+     * <ul>
+     * <li>{@link #EXTRA_DELETED_TURNS}: the turns to delete, as pairs of member id and start time.</li>
+     * <li>{@link #EXTRA_TURNS}: the turns to insert, as triplets of member id, start time, and end time. The talk segment trigger
+     * adds them to the durations of the members.</li>
+     * <li>{@link #EXTRA_TALK_START_TIMES}: the members who started talking, as pairs of member id and start time.</li>
+     * <li>{@link #EXTRA_TALK_STATES}: the members whose duration and start time are overwritten, as triplets of member id,
+     * duration, and start time.</li>
+     * </ul>
+     * If {@link #EXTRA_NOTIFY} is true, the observers of the members of the meeting are notified once. See {@link TalkStateWrite}.
+     */
+    public static final String METHOD_WRITE_TALK_STATE = "write_talk_state";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: notify the observers of the members of the meeting given by
+     * {@link #EXTRA_MEETING_ID}, after writes to uris returned by {@link #getUriWithoutNotification(Uri)}.
+     */
+    public static final String METHOD_NOTIFY_MEETING_MEMBERS = "notify_meeting_members";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: return the number of uris which were changed, notified, and not notified
+     * because the notification was redundant.
+     */
+    public static final String METHOD_NOTIFICATION_STATS = "notification_stats";
+    public static final String EXTRA_NOTIFICATIONS_REQUESTED = "notifications_requested";
+    public static final String EXTRA_NOTIFICATIONS_DELIVERED = "notifications_delivered";
+    public static final String EXTRA_NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+    /**
+     * Method for {@link #call(String, String, Bundle)}: return the number of write statements which were reused from the cache,
+     * and which had to be compiled.
+     */
+    public static final String METHOD_STATEMENT_STATS = "statement_stats";
+    public static final String EXTRA_STATEMENTS_REUSED = "statements_reused";
+    public static final String EXTRA_STATEMENTS_COMPILED = "statements_compiled";
+    /**
+     * Method for {@link #call(String, String, Bundle)}: return a report of the time spent executing statements, in {@link #EXTRA_QUERY_STATS}.
+     * The report contains the number of executions, the total and maximum time, and the rows read or changed, for each sql statement,
+     * followed by the slowest statements, with their query plan. The statements are only timed in debug builds.
+     */
+    public static final String METHOD_QUERY_STATS = "query_stats";
+    public static final String EXTRA_QUERY_STATS = "query_stats";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: write the report of {@link #METHOD_QUERY_STATS} to the file given by the arg.
+     * The result bundle contains the path of the file in {@link #EXTRA_FILE}, or is null if the file couldn't be written.
+     */
+    public static final String METHOD_DUMP_QUERY_STATS = "dump_query_stats";
+
+    /**
+     * Method for {@link #call(String, String, Bundle)}: return the version of the data, in {@link #EXTRA_DATA_VERSION}. The version
+     * changes each time the provider commits a write, and each time the provider is created: if two versions are equal, the
+     * data didn't change in between.
+     */
+    public static final String METHOD_DATA_VERSION = "data_version";
+    public static final String EXTRA_DATA_VERSION = "data_version";
+    public static final String EXTRA_FILE = "file";
+    public static final String EXTRA_MEETING_ID = "meeting_id";
+    public static final String EXTRA_NOW = "now";
+    public static final String EXTRA_DELETED_TURNS = "deleted_turns";
+    public static final String EXTRA_TURNS = "turns";
+    public static final String EXTRA_TALK_START_TIMES = "talk_start_times";
+    public static final String EXTRA_TALK_STATES = "talk_states";
+    public static final String EXTRA_NOTIFY = "notify";
+
+    // Record the turn of the member who is talking, ending now. A trigger adds it to their duration, and marks them as not talking.
+    // The arguments are the current time, followed by the arguments of the where clause.
+    static final String SQL_INSERT_STOP_TALKING = "INSERT INTO " + TalkSegmentColumns.TABLE_NAME + " ("
+            + TalkSegmentColumns.MEETING_ID + ", " + TalkSegmentColumns.MEMBER_ID + ", " + TalkSegmentColumns.START_TIME + ", " + TalkSegmentColumns.END_TIME + ")"
+            + " SELECT " + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.TALK_START_TIME + ", ?"
+            + " FROM " + MeetingMemberColumns.TABLE_NAME
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + "=? AND " + MeetingMemberColumns.TALK_START_TIME + ">0";
+
+    // Record a turn. A trigger adds it to the duration of the member, and marks them as not talking, unless they started again.
+    // The arguments are the meeting id, the member id, the start time, and the end time.
+    static final String SQL_INSERT_TALK_SEGMENT = "INSERT INTO " + TalkSegmentColumns.TABLE_NAME + " ("
+            + TalkSegmentColumns.MEETING_ID + ", " + TalkSegmentColumns.MEMBER_ID + ", " + TalkSegmentColumns.START_TIME + ", " + TalkSegmentColumns.END_TIME + ")"
+            + " VALUES (?, ?, ?, ?)";
+
+    // Delete a turn which was undone. The arguments are the meeting id, the member id, and the start time.
+    static final String SQL_DELETE_TALK_SEGMENT = "DELETE FROM " + TalkSegmentColumns.TABLE_NAME
+            + " WHERE " + TalkSegmentColumns.MEETING_ID + "=? AND " + TalkSegmentColumns.MEMBER_ID + "=? AND " + TalkSegmentColumns.START_TIME + "=?";
+
+    // Save the time a member started talking. The arguments are the start time, the meeting id, and the member id.
+    static final String SQL_UPDATE_TALK_START_TIME = "UPDATE " + MeetingMemberColumns.TABLE_NAME + " SET "
+            + MeetingMemberColumns.TALK_START_TIME + "=?"
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + "=? AND " + MeetingMemberColumns.MEMBER_ID + "=?";
+
+    // Overwrite the duration and the start time of a member. The arguments are the duration, the start time, the meeting id, and the member id.
+    static final String SQL_UPDATE_TALK_STATE = "UPDATE " + MeetingMemberColumns.TABLE_NAME + " SET "
+            + MeetingMemberColumns.DURATION + "=?, " + MeetingMemberColumns.TALK_START_TIME + "=?"
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + "=? AND " + MeetingMemberColumns.MEMBER_ID + "=?";
+
+    // Add all the active members of a team to a new meeting. The arguments are the meeting id and the team id.
+    static final String SQL_INSERT_MEETING_MEMBERS = "INSERT INTO " + MeetingMemberColumns.TABLE_NAME + " ("
+            + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ")"
+            + " SELECT ?, " + MemberColumns._ID + ", 0"
+            + " FROM " + MemberColumns.TABLE_NAME
+            + " WHERE " + MemberColumns.TEAM_ID + "=? AND " + MemberColumns.DELETED + "=0";
+
+    // Save the state, date, and duration of a meeting.
+    static final String SQL_UPDATE_MEETING = "UPDATE " + MeetingColumns.TABLE_NAME + " SET "
+            + MeetingColumns.STATE + "=?, " + MeetingColumns.MEETING_DATE + "=?, " + MeetingColumns.TOTAL_DURATION + "=?"
+            + " WHERE " + BaseColumns._ID + "=?";
+
+    // Finish a meeting: its duration is the time since it started. The arguments are the finished state, the current time, and the meeting id.
+    static final String SQL_UPDATE_STOP_MEETING = "UPDATE " + MeetingColumns.TABLE_NAME + " SET "
+            + MeetingColumns.STATE + "=?, " + MeetingColumns.TOTAL_DURATION + "=(? - " + MeetingColumns.MEETING_DATE + ") / 1000"
+            + " WHERE " + BaseColumns._ID + "=?";
+
+    // Mark a member as deleted, and rename them.
+    private static final String SQL_UPDATE_MEMBER_DELETED = "UPDATE " + MemberColumns.TABLE_NAME + " SET "
+            + MemberColumns.DELETED + "=?, " + MemberColumns.NAME + "=?"
+            + " WHERE " + BaseColumns._ID + "=?";
+
+    // The join of the member, meeting_member, and meeting tables, for the meeting_member uris.
+    static final String TABLES_MEETING_MEMBER = MemberColumns.TABLE_NAME + " LEFT OUTER JOIN " + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "."
+            + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID + " LEFT OUTER JOIN "
+            + MeetingColumns.TABLE_NAME + " ON " + MeetingColumns.TABLE_NAME + "." + MeetingColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME
+            + "." + MeetingMemberColumns.MEETING_ID;
+
+    // The meetings older than the given one, or as old but with a smaller id: the arguments are the date, the date, and the id.
+    // This is written so that the meeting date index can be used for the range.
+    static final String SELECTION_MEETING_PAGE_KEYSET = MeetingColumns.MEETING_DATE + "<=? and (" + MeetingColumns.MEETING_DATE + "<? or "
+            + BaseColumns._ID + "<?)";
 
     private static final String QUERY_NOTIFY = "QUERY_NOTIFY"; // NO_UCD (use private)
     private static final String QUERY_GROUP_BY = "QUERY_GROUP_BY"; // NO_UCD (use private)
@@ -77,6 +221,15 @@ public class ScrumChatterProvider extends ContentProvider {
 
     private static final int URI_TYPE_MEMBER_STATS = 8;
 
+    // The meetings, meeting members, and member stats of one team.
+    private static final int URI_TYPE_TEAM_MEETING = 9;
+    private static final int URI_TYPE_TEAM_MEETING_MEMBER = 10;
+    private static final int URI_TYPE_TEAM_MEMBER_STATS = 11;
+
+    private static final int URI_TYPE_TALK_SEGMENT = 12;
+
+    private static final long NO_TEAM_ID = -1;
+
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
@@ -92,11 +245,22 @@ public class ScrumChatterProvider extends ContentProvider {
         URI_MATCHER.addURI(AUTHORITY, MeetingColumns.TABLE_NAME, URI_TYPE_MEETING);
         URI_MATCHER.addURI(AUTHORITY, MeetingColumns.TABLE_NAME + "/#", URI_TYPE_MEETING_ID);
 
-        URI_MATCHER.addURI(AUTHORITY, MemberStatsColumns.VIEW_NAME, URI_TYPE_MEMBER_STATS);
+        URI_MATCHER.addURI(AUTHORITY, MemberStatsColumns.TABLE_NAME, URI_TYPE_MEMBER_STATS);
+
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MeetingColumns.TABLE_NAME, URI_TYPE_TEAM_MEETING);
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MeetingMemberColumns.TABLE_NAME, URI_TYPE_TEAM_MEETING_MEMBER);
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MemberStatsColumns.TABLE_NAME, URI_TYPE_TEAM_MEMBER_STATS);
 
+        URI_MATCHER.addURI(AUTHORITY, TalkSegmentColumns.TABLE_NAME, URI_TYPE_TALK_SEGMENT);
     }
 
     private ScrumChatterDatabase mScrumChatterDatabase;
+    private NotificationCoalescer mNotificationCoalescer;
+    private final StatementCache mStatementCache = new StatementCache();
+    private final QueryStats mQueryStats = new QueryStats();
+    // The data version is the creation time of the provider, and the number of writes it committed since then.
+    private final long mCreationTime = System.currentTimeMillis();
+    private final AtomicLong mWriteSequence = new AtomicLong();
     private Context mContext;
 
     @Override
@@ -107,6 +271,7 @@ public class ScrumChatterProvider extends ContentProvider {
         // though this isn't really the case (getContext() can only be null before
         // onCreate() is called).
         mContext = getContext();
+        mNotificationCoalescer = new NotificationCoalescer(mContext);
         return true;
     }
 
@@ -135,7 +300,17 @@ public class ScrumChatterProvider extends ContentProvider {
                 return TYPE_CURSOR_ITEM + MeetingColumns.TABLE_NAME;
 
             case URI_TYPE_MEMBER_STATS:
-                return TYPE_CURSOR_ITEM + MemberStatsColumns.VIEW_NAME;
+                return TYPE_CURSOR_ITEM + MemberStatsColumns.TABLE_NAME;
+
+            case URI_TYPE_TEAM_MEETING:
+                return TYPE_CURSOR_DIR + MeetingColumns.TABLE_NAME;
+            case URI_TYPE_TEAM_MEETING_MEMBER:
+                return TYPE_CURSOR_DIR + MeetingMemberColumns.TABLE_NAME;
+            case URI_TYPE_TEAM_MEMBER_STATS:
+                return TYPE_CURSOR_ITEM + MemberStatsColumns.TABLE_NAME;
+
+            case URI_TYPE_TALK_SEGMENT:
+                return TYPE_CURSOR_DIR + TalkSegmentColumns.TABLE_NAME;
 
         }
         return null;
@@ -146,32 +321,24 @@ public class ScrumChatterProvider extends ContentProvider {
         Log.d(TAG, "insert uri=" + uri + " values=" + values);
         final String table = uri.getLastPathSegment();
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
-        final long rowId = db.insert(table, null, values);
-        // When we insert a row into the meeting table, we have to add
-        // all existing members to this meeting. To do this, we create
-        // one row for each member into the meeting_member table for this team.
-        if (table.equals(MeetingColumns.TABLE_NAME)) {
-            int teamId = values.getAsInteger(MeetingColumns.TEAM_ID);
-            Cursor members = db.query(MemberColumns.TABLE_NAME, new String[] { MemberColumns._ID }, MemberColumns.TEAM_ID + "=? AND " + MemberColumns.DELETED
-                    + "=0 ", new String[] { String.valueOf(teamId) }, null, null, null);
-            if (members != null) {
-                ContentValues[] newMeetingMembers = new ContentValues[members.getCount()];
-                if (members.moveToFirst()) {
-                    int i = 0;
-                    do {
-                        long memberId = members.getLong(0);
-                        values = new ContentValues();
-                        values.put(MeetingMemberColumns.MEMBER_ID, memberId);
-                        values.put(MeetingMemberColumns.MEETING_ID, rowId);
-                        values.put(MeetingMemberColumns.DURATION, 0L);
-                        newMeetingMembers[i++] = values;
-                    } while (members.moveToNext());
-                }
-                bulkInsert(MeetingMemberColumns.CONTENT_URI, newMeetingMembers);
-                members.close();
+        final long teamId = getTeamId(db, uri, values);
+        final long start = System.nanoTime();
+        final long rowId;
+        db.beginTransaction();
+        try {
+            rowId = db.insert(table, null, values);
+            // When we insert a row into the meeting table, we have to add
+            // all existing members of the team to this meeting, in the same transaction.
+            if (rowId != -1 && table.equals(MeetingColumns.TABLE_NAME)) {
+                db.execSQL(SQL_INSERT_MEETING_MEMBERS, new Object[] { rowId, teamId });
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        if (rowId != -1 && !db.inTransaction()) notifyChange(uri);
+        if (QueryStats.ENABLED) mQueryStats.recordUpdate(getInsertSql(table, values), null, rowId == -1 ? 0 : 1, start);
+        if (rowId != -1) notifyChange(uri, teamId);
+        commitNotifications(db);
 
         Uri result = uri.buildUpon().appendEncodedPath(String.valueOf(rowId)).build();
         Log.v(TAG, "Created row with uri " + result);
@@ -183,6 +350,9 @@ public class ScrumChatterProvider extends ContentProvider {
         Log.d(TAG, "bulkInsert uri=" + uri + " values.length=" + values.length);
         final String table = uri.getLastPathSegment();
         final SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        // We assume all the rows are for the same team.
+        final long teamId = values.length == 0 ? NO_TEAM_ID : getTeamId(db, uri, values[0]);
+        final long start = System.nanoTime();
         int res = 0;
         db.beginTransaction();
         try {
@@ -196,7 +366,9 @@ public class ScrumChatterProvider extends ContentProvider {
         } finally {
             db.endTransaction();
         }
-        if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        if (QueryStats.ENABLED && values.length > 0) mQueryStats.recordUpdate("BULK " + getInsertSql(table, values[0]), null, res, start);
+        if (res != 0) notifyChange(uri, teamId);
+        commitNotifications(db);
 
         return res;
     }
@@ -206,8 +378,27 @@ public class ScrumChatterProvider extends ContentProvider {
         StatementParams params = getStatementParams(uri, selection);
         Log.d(TAG, "update uri=" + uri + " values=" + values + " selection=" + selection + ", selectionArgs = " + Arrays.toString(selectionArgs));
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
-        final int res = db.update(params.table, values, params.selection, selectionArgs);
-        if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        final long teamId = getTeamId(db, uri, values);
+        final int res;
+        int matchedId = URI_MATCHER.match(uri);
+        // The most frequent updates of a single row use a cached statement.
+        if (selection == null && matchedId == URI_TYPE_MEETING_ID && values.size() == 3
+                && values.containsKey(MeetingColumns.STATE) && values.containsKey(MeetingColumns.MEETING_DATE)
+                && values.containsKey(MeetingColumns.TOTAL_DURATION)) {
+            res = executeUpdateDelete(db, SQL_UPDATE_MEETING, values.get(MeetingColumns.STATE), values.get(MeetingColumns.MEETING_DATE),
+                    values.get(MeetingColumns.TOTAL_DURATION), uri.getLastPathSegment());
+        } else if (selection == null && matchedId == URI_TYPE_MEMBER_ID && values.size() == 2
+                && values.containsKey(MemberColumns.DELETED) && values.containsKey(MemberColumns.NAME)) {
+            res = executeUpdateDelete(db, SQL_UPDATE_MEMBER_DELETED, values.get(MemberColumns.DELETED), values.get(MemberColumns.NAME),
+                    uri.getLastPathSegment());
+        } else {
+            final long start = System.nanoTime();
+            String[] args = params.getSelectionArgs(selectionArgs);
+            res = db.update(params.table, values, params.selection, args);
+            if (QueryStats.ENABLED) mQueryStats.recordUpdate(getUpdateSql(params.table, values, params.selection), args, res, start);
+        }
+        if (res != 0) notifyChange(uri, teamId);
+        commitNotifications(db);
         return res;
     }
 
@@ -216,8 +407,14 @@ public class ScrumChatterProvider extends ContentProvider {
         Log.d(TAG, "delete uri=" + uri + " selection=" + selection);
         StatementParams params = getStatementParams(uri, selection);
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
-        final int res = db.delete(params.table, params.selection, selectionArgs);
-        if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        // Read the team before the row is deleted.
+        final long teamId = getTeamId(db, uri, null);
+        final long start = System.nanoTime();
+        final String[] args = params.getSelectionArgs(selectionArgs);
+        final int res = db.delete(params.table, params.selection, args);
+        if (QueryStats.ENABLED) mQueryStats.recordUpdate("DELETE FROM " + params.table + getWhereSql(params.selection), args, res, start);
+        if (res != 0) notifyChange(uri, teamId);
+        commitNotifications(db);
         return res;
     }
 
@@ -231,19 +428,24 @@ public class ScrumChatterProvider extends ContentProvider {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(queryParams.table);
 
-        final Cursor res = qb.query(
-                mScrumChatterDatabase.getReadableDatabase(), projection,
-                queryParams.selection, selectionArgs, groupBy, null,
-                sortOrder == null ? queryParams.orderBy : sortOrder);
-        logCursor(res, selectionArgs);
+        // The order of a page of meetings can't be changed: it's the order of the keyset.
+        final String orderBy = sortOrder == null || queryParams.isPage ? queryParams.orderBy : sortOrder;
+        final SQLiteDatabase db = mScrumChatterDatabase.getReadableDatabase();
+        final String[] args = queryParams.getQueryArgs(selectionArgs);
+        final long start = System.nanoTime();
+        final Cursor res = qb.query(db, projection, queryParams.selection, args, groupBy, null, orderBy, queryParams.limit);
+        if (QueryStats.ENABLED) {
+            // Counting the rows executes the query, so that its time is measured.
+            final int rows = res.getCount();
+            mQueryStats.recordQuery(db, qb.buildQuery(projection, queryParams.selection, groupBy, null, orderBy, queryParams.limit), args, rows, start);
+        }
         res.setNotificationUri(mContext.getContentResolver(), uri);
 
         return res;
     }
 
     /**
-     * Perform all operations in a single transaction and notify all relevant URIs at the end. The {@link MemberStatsColumns#CONTENT_URI} uri is always notified
-     * for a successful transaction.
+     * Perform all operations in a single transaction and notify all relevant URIs once, at the end.
      * 
      * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
      */
@@ -251,53 +453,223 @@ public class ScrumChatterProvider extends ContentProvider {
     @NonNull public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
         Log.v(TAG, "applyBatch: " + operations);
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        final long start = System.nanoTime();
         db.beginTransaction();
         try {
             ContentProviderResult[] result = super.applyBatch(operations);
             db.setTransactionSuccessful();
-            Observable.fromIterable(operations)
-                    .map(ContentProviderOperation::getUri)
-                    .concatWith(Observable.just(MemberStatsColumns.CONTENT_URI))
-                    .distinct()
-                    .doOnNext(uri -> Log.v(TAG, "applyBatch: Notify uri " + uri))
-                    .subscribe(this::notifyChange);
+            if (QueryStats.ENABLED) mQueryStats.recordUpdate("BATCH OF " + operations.size() + " OPERATIONS", null, result.length, start);
             return result;
         } finally {
             db.endTransaction();
+            commitNotifications(db);
         }
     }
 
     /**
-     * Log the query of the given cursor.
+     * @return the given uri, with a parameter which tells the provider not to notify the observers when it writes to it.
      */
-    private void logCursor(Cursor cursor, String[] selectionArgs) {
+    public static Uri getUriWithoutNotification(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(QUERY_NOTIFY, "false").build();
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        Log.d(TAG, "call method=" + method + " arg=" + arg + " extras=" + extras);
+        if (METHOD_CHECKPOINT.equals(method)) {
+            mScrumChatterDatabase.checkpoint();
+            return null;
+        } else if (METHOD_NOTIFICATION_STATS.equals(method)) {
+            return mNotificationCoalescer.getStats();
+        } else if (METHOD_STATEMENT_STATS.equals(method)) {
+            return mStatementCache.getStats();
+        } else if (METHOD_QUERY_STATS.equals(method)) {
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_QUERY_STATS, mQueryStats.getReport());
+            return result;
+        } else if (METHOD_DUMP_QUERY_STATS.equals(method) && arg != null) {
+            File file = new File(arg);
+            if (!mQueryStats.dump(file)) return null;
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_FILE, file.getAbsolutePath());
+            return result;
+        } else if (METHOD_DATA_VERSION.equals(method)) {
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_DATA_VERSION, mCreationTime + "/" + mWriteSequence.get());
+            return result;
+        } else if (METHOD_STOP_MEETING.equals(method) && extras != null) {
+            stopMeeting(extras.getLong(EXTRA_MEETING_ID), extras.getLong(EXTRA_NOW));
+            return null;
+        } else if (METHOD_WRITE_TALK_STATE.equals(method) && extras != null) {
+            writeTalkState(extras);
+            return null;
+        } else if (METHOD_NOTIFY_MEETING_MEMBERS.equals(method) && extras != null) {
+            long meetingId = extras.getLong(EXTRA_MEETING_ID);
+            SQLiteDatabase db = mScrumChatterDatabase.getReadableDatabase();
+            notifyChange(Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(meetingId)), getMeetingTeamId(db, meetingId));
+            commitNotifications(db);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * @see #METHOD_STOP_MEETING
+     */
+    private void stopMeeting(long meetingId, long now) {
+        SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        db.beginTransaction();
         try {
-            Field queryField = SQLiteCursor.class.getDeclaredField("mQuery");
-            queryField.setAccessible(true);
-            SQLiteQuery sqliteQuery = (SQLiteQuery) queryField.get(cursor);
-            Log.v(TAG, sqliteQuery.toString() + ": " + Arrays.toString(selectionArgs));
-        } catch (Exception e) {
-            Log.v(TAG, e.getMessage(), e);
+            // End the turn of the member who is talking, if any: the talk segment trigger adds it to their duration.
+            executeUpdateDelete(db, SQL_INSERT_STOP_TALKING, now, meetingId);
+            executeUpdateDelete(db, SQL_UPDATE_STOP_MEETING, State.FINISHED.ordinal(), now, meetingId);
+            db.setTransactionSuccessful();
+            // Notify once: the meeting uri also notifies the members of the meeting, and the stats of the team.
+            notifyChange(Uri.withAppendedPath(MeetingColumns.CONTENT_URI, String.valueOf(meetingId)), getMeetingTeamId(db, meetingId));
+        } finally {
+            db.endTransaction();
+        }
+        commitNotifications(db);
+        Log.v(TAG, "stopMeeting: meeting " + meetingId + " stopped at " + now);
+    }
+
+    /**
+     * @see #METHOD_WRITE_TALK_STATE
+     */
+    private void writeTalkState(Bundle extras) {
+        long meetingId = extras.getLong(EXTRA_MEETING_ID);
+        long[] deletedTurns = extras.getLongArray(EXTRA_DELETED_TURNS);
+        long[] turns = extras.getLongArray(EXTRA_TURNS);
+        long[] talkStartTimes = extras.getLongArray(EXTRA_TALK_START_TIMES);
+        long[] talkStates = extras.getLongArray(EXTRA_TALK_STATES);
+        SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; deletedTurns != null && i < deletedTurns.length; i += 2) {
+                executeUpdateDelete(db, SQL_DELETE_TALK_SEGMENT, meetingId, deletedTurns[i], deletedTurns[i + 1]);
+            }
+            for (int i = 0; turns != null && i < turns.length; i += 3) {
+                executeUpdateDelete(db, SQL_INSERT_TALK_SEGMENT, meetingId, turns[i], turns[i + 1], turns[i + 2]);
+            }
+            for (int i = 0; talkStartTimes != null && i < talkStartTimes.length; i += 2) {
+                executeUpdateDelete(db, SQL_UPDATE_TALK_START_TIME, talkStartTimes[i + 1], meetingId, talkStartTimes[i]);
+            }
+            for (int i = 0; talkStates != null && i < talkStates.length; i += 3) {
+                executeUpdateDelete(db, SQL_UPDATE_TALK_STATE, talkStates[i + 1], talkStates[i + 2], meetingId, talkStates[i]);
+            }
+            db.setTransactionSuccessful();
+            // Notify once, for the members of this meeting.
+            if (extras.getBoolean(EXTRA_NOTIFY)) {
+                notifyChange(Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(meetingId)), getMeetingTeamId(db, meetingId));
+            }
+        } finally {
+            db.endTransaction();
+        }
+        commitNotifications(db);
+    }
+
+    /**
+     * Execute the given insert, update, or delete statement, compiled once and cached.
+     *
+     * @return the number of rows changed.
+     */
+    private int executeUpdateDelete(SQLiteDatabase db, String sql, Object... args) {
+        final long start = System.nanoTime();
+        SQLiteStatement statement = mStatementCache.acquire(db, sql);
+        try {
+            StatementCache.bindAll(statement, args);
+            int rows = statement.executeUpdateDelete();
+            if (QueryStats.ENABLED) mQueryStats.recordUpdate(sql, toStrings(args), rows, start);
+            return rows;
+        } finally {
+            mStatementCache.release(db, sql, statement);
         }
     }
 
-    private void notifyChange(Uri uri) {
+    /**
+     * Execute the given query, compiled once and cached.
+     *
+     * @return the value of the first column of the first row.
+     * @throws SQLiteDoneException if the query returns no rows.
+     */
+    private long simpleQueryForLong(SQLiteDatabase db, String sql, Object... args) {
+        final long start = System.nanoTime();
+        SQLiteStatement statement = mStatementCache.acquire(db, sql);
+        try {
+            StatementCache.bindAll(statement, args);
+            long result = statement.simpleQueryForLong();
+            if (QueryStats.ENABLED) mQueryStats.recordQuery(db, sql, toStrings(args), 1, start);
+            return result;
+        } finally {
+            mStatementCache.release(db, sql, statement);
+        }
+    }
+
+    private static String[] toStrings(Object... args) {
+        String[] result = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            result[i] = String.valueOf(args[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the sql of an insert of the given values, for the query stats. The columns are sorted, so that the sql doesn't depend on the
+     * order of the values.
+     */
+    private static String getInsertSql(String table, ContentValues values) {
+        List<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        return "INSERT INTO " + table + " (" + TextUtils.join(", ", columns) + ")";
+    }
+
+    /**
+     * @return the sql of an update of the given values, for the query stats.
+     */
+    private static String getUpdateSql(String table, ContentValues values, String selection) {
+        List<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        return "UPDATE " + table + " SET " + TextUtils.join("=?, ", columns) + "=?" + getWhereSql(selection);
+    }
+
+    private static String getWhereSql(String selection) {
+        return selection == null ? "" : " WHERE " + selection;
+    }
+
+    /**
+     * Mark the given uri, and the uris which depend on it, as changed. They will be notified by {@link #commitNotifications(SQLiteDatabase)}.
+     *
+     * @param teamId the team whose data changed, or {@link #NO_TEAM_ID} if we don't know. Observers of the uris for other teams
+     *               are only notified if we don't know the team.
+     */
+    private void notifyChange(Uri uri, long teamId) {
         String notify = uri.getQueryParameter(QUERY_NOTIFY);
-        Log.v(TAG, "notifyChange: uri = " + uri + ", notify = " + notify);
+        Log.v(TAG, "notifyChange: uri = " + uri + ", teamId = " + teamId + ", notify = " + notify);
         if (notify == null || "true".equals(notify)) {
             // Notify the uri which changed.
             Set<Uri> urisToNotify = new HashSet<>();
             urisToNotify.add(uri);
 
-            // Whether a meeting, meeting_member, or meeting table was
-            // modified, update the member_stats view.
-            urisToNotify.add(MemberStatsColumns.CONTENT_URI);
+            int matchedId = URI_MATCHER.match(uri);
+            if (matchedId == URI_TYPE_TEAM || matchedId == URI_TYPE_TEAM_ID || teamId == NO_TEAM_ID) {
+                // A team was added, renamed, or deleted, or we don't know which team changed.
+                // Notifying the team uri also notifies the uris of all teams.
+                urisToNotify.add(TeamColumns.CONTENT_URI);
+                urisToNotify.add(MemberStatsColumns.CONTENT_URI);
+            } else {
+                // Whether a meeting, meeting_member, or member table was
+                // modified, update the member_stats of the team.
+                urisToNotify.add(MemberStatsColumns.getTeamContentUri(teamId));
+                urisToNotify.add(MeetingMemberColumns.getTeamContentUri(teamId));
+                if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEETING) {
+                    urisToNotify.add(MeetingColumns.getTeamContentUri(teamId));
+                }
+            }
 
             // Notify other uris if they depend on the given uri which just
             // changed.
-            int matchedId = URI_MATCHER.match(uri);
-            // If a member changed, notify the the meeting_member uri.
-            if (matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEMBER) {
+            // If a member changed, or a member finished a turn, notify the the meeting_member uri.
+            if (matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEMBER || matchedId == URI_TYPE_TALK_SEGMENT) {
                 urisToNotify.add(MeetingMemberColumns.CONTENT_URI);
             }
             // If a meeting changed, notify the meeting_member uri, including
@@ -316,18 +688,89 @@ public class ScrumChatterProvider extends ContentProvider {
 
             // Notify all the relevant uris.
             for (Uri uriToNotify : urisToNotify) {
-                Log.v(TAG, "notifyChange: notify uri " + uriToNotify);
-                mContext.getContentResolver().notifyChange(uriToNotify, null);
+                mNotificationCoalescer.add(uriToNotify);
             }
         }
     }
 
+    /**
+     * @return the team of the row which the given uri and values will write to, or {@link #NO_TEAM_ID} if we can't tell
+     * without reading all the rows matching a selection.
+     */
+    private long getTeamId(SQLiteDatabase db, Uri uri, ContentValues values) {
+        int matchedId = URI_MATCHER.match(uri);
+        switch (matchedId) {
+            case URI_TYPE_TEAM_ID:
+                return Long.parseLong(uri.getLastPathSegment());
+            case URI_TYPE_MEETING:
+                if (values != null && values.containsKey(MeetingColumns.TEAM_ID)) return values.getAsLong(MeetingColumns.TEAM_ID);
+                break;
+            case URI_TYPE_MEETING_ID:
+                return getMeetingTeamId(db, Long.parseLong(uri.getLastPathSegment()));
+            case URI_TYPE_MEMBER:
+                if (values != null && values.containsKey(MemberColumns.TEAM_ID)) return values.getAsLong(MemberColumns.TEAM_ID);
+                break;
+            case URI_TYPE_MEMBER_ID:
+                return getTeamId(db, MemberColumns.TABLE_NAME, MemberColumns.TEAM_ID, Long.parseLong(uri.getLastPathSegment()));
+            case URI_TYPE_MEETING_MEMBER_ID:
+                // The id is the meeting id.
+                return getMeetingTeamId(db, Long.parseLong(uri.getLastPathSegment()));
+            case URI_TYPE_MEETING_MEMBER:
+                if (values != null && values.containsKey(MeetingMemberColumns.MEETING_ID)) {
+                    return getMeetingTeamId(db, values.getAsLong(MeetingMemberColumns.MEETING_ID));
+                }
+                break;
+            case URI_TYPE_TALK_SEGMENT:
+                if (values != null && values.containsKey(TalkSegmentColumns.MEETING_ID)) {
+                    return getMeetingTeamId(db, values.getAsLong(TalkSegmentColumns.MEETING_ID));
+                }
+                break;
+            default:
+                break;
+        }
+        return NO_TEAM_ID;
+    }
+
+    private long getMeetingTeamId(SQLiteDatabase db, long meetingId) {
+        return getTeamId(db, MeetingColumns.TABLE_NAME, MeetingColumns.TEAM_ID, meetingId);
+    }
+
+    private long getTeamId(SQLiteDatabase db, String table, String teamIdColumn, long id) {
+        try {
+            return simpleQueryForLong(db, "SELECT " + teamIdColumn + " FROM " + table + " WHERE " + BaseColumns._ID + "=?", id);
+        } catch (SQLiteDoneException e) {
+            return NO_TEAM_ID;
+        }
+    }
+
+    /**
+     * Notify the uris changed by this thread, and change the data version, unless the thread is still in a transaction. In that
+     * case, it will be done when the transaction is over.
+     */
+    private void commitNotifications(SQLiteDatabase db) {
+        if (!db.inTransaction()) {
+            mWriteSequence.incrementAndGet();
+            mNotificationCoalescer.commit();
+        }
+    }
+
     /**
      * To be used for updates and deletes
      */
     private static class StatementParams {
         public String table;
         public String selection;
+        // The id from the uri, bound as the first argument of the selection.
+        public String id;
+
+        String[] getSelectionArgs(String[] selectionArgs) {
+            if (id == null) return selectionArgs;
+            if (selectionArgs == null) return new String[] { id };
+            String[] result = new String[selectionArgs.length + 1];
+            result[0] = id;
+            System.arraycopy(selectionArgs, 0, result, 1, selectionArgs.length);
+            return result;
+        }
 
     }
 
@@ -336,6 +779,20 @@ public class ScrumChatterProvider extends ContentProvider {
      */
     private static class QueryParams extends StatementParams {
         public String orderBy;
+        public String limit;
+        // True if the uri is for a page of meetings.
+        public boolean isPage;
+        // The date and id of the meeting before which the page starts, bound after the selection args.
+        public String[] keysetArgs;
+
+        String[] getQueryArgs(String[] selectionArgs) {
+            if (keysetArgs == null) return selectionArgs;
+            if (selectionArgs == null) return keysetArgs;
+            String[] result = new String[selectionArgs.length + keysetArgs.length];
+            System.arraycopy(selectionArgs, 0, result, 0, selectionArgs.length);
+            System.arraycopy(keysetArgs, 0, result, selectionArgs.length, keysetArgs.length);
+            return result;
+        }
     }
 
     /**
@@ -378,15 +835,21 @@ public class ScrumChatterProvider extends ContentProvider {
             case URI_TYPE_MEETING:
                 res.table = MeetingColumns.TABLE_NAME;
                 break;
+            case URI_TYPE_TALK_SEGMENT:
+                res.table = TalkSegmentColumns.TABLE_NAME;
+                break;
 
             default:
                 throw new IllegalArgumentException("The uri '" + uri + "' is not supported by this ContentProvider");
         }
 
+        // Bind the id instead of adding it to the sql, so that the sql is the same for all ids and
+        // can be reused from the statement cache of the database connection.
+        res.id = id;
         if (id != null) {
-            if (selection != null) res.selection = BaseColumns._ID + "=" + id + " and (" + selection + ")";
+            if (selection != null) res.selection = BaseColumns._ID + "=? and (" + selection + ")";
             else
-                res.selection = BaseColumns._ID + "=" + id;
+                res.selection = BaseColumns._ID + "=?";
         } else {
             res.selection = selection;
         }
@@ -409,6 +872,7 @@ public class ScrumChatterProvider extends ContentProvider {
     private QueryParams getQueryParams(Uri uri, String selection) {
         QueryParams res = new QueryParams();
         String id = null;
+        String teamIdColumn = null;
         int matchedId = URI_MATCHER.match(uri);
         res.selection = selection;
         switch (matchedId) {
@@ -416,13 +880,12 @@ public class ScrumChatterProvider extends ContentProvider {
         // member tables.
         // This table does not have an _id field. If the Uri contains an id,
         // this will be used as the meeting id.
+            case URI_TYPE_TEAM_MEETING_MEMBER:
+                teamIdColumn = MeetingColumns.TEAM_ID;
             case URI_TYPE_MEETING_MEMBER:
             case URI_TYPE_MEETING_MEMBER_ID:
                 // The join contains the member, meeting_member, and meeting tables.
-                res.table = MemberColumns.TABLE_NAME + " LEFT OUTER JOIN " + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "."
-                        + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID + " LEFT OUTER JOIN "
-                        + MeetingColumns.TABLE_NAME + " ON " + MeetingColumns.TABLE_NAME + "." + MeetingColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME
-                        + "." + MeetingMemberColumns.MEETING_ID;
+                res.table = TABLES_MEETING_MEMBER;
 
                 // If a specific meeting is specified, append a selection
                 // on the meeting id to the end of the existing selection
@@ -448,6 +911,12 @@ public class ScrumChatterProvider extends ContentProvider {
                 res.orderBy = MemberColumns.DEFAULT_ORDER;
                 break;
 
+            case URI_TYPE_TEAM_MEETING:
+                teamIdColumn = MeetingColumns.TEAM_ID;
+                res.table = MeetingColumns.TABLE_NAME;
+                res.orderBy = MeetingColumns.DEFAULT_ORDER;
+                break;
+
             case URI_TYPE_MEETING_ID:
                 id = uri.getLastPathSegment();
             case URI_TYPE_MEETING:
@@ -455,11 +924,18 @@ public class ScrumChatterProvider extends ContentProvider {
                 res.orderBy = MeetingColumns.DEFAULT_ORDER;
                 break;
 
+            case URI_TYPE_TEAM_MEMBER_STATS:
+                teamIdColumn = MemberStatsColumns.TEAM_ID;
             case URI_TYPE_MEMBER_STATS:
-                res.table = MemberStatsColumns.VIEW_NAME;
+                res.table = MemberStatsColumns.TABLE_NAME;
                 res.orderBy = MemberStatsColumns.DEFAULT_ORDER;
                 break;
 
+            case URI_TYPE_TALK_SEGMENT:
+                res.table = TalkSegmentColumns.TABLE_NAME;
+                res.orderBy = TalkSegmentColumns.DEFAULT_ORDER;
+                break;
+
             default:
                 throw new IllegalArgumentException("The uri '" + uri + "' is not supported by this ContentProvider");
         }
@@ -470,6 +946,34 @@ public class ScrumChatterProvider extends ContentProvider {
                 res.selection = BaseColumns._ID + "=" + id;
         }
 
+        // The uri is for one team: team/<team id>/<table>
+        if (teamIdColumn != null) {
+            String teamId = uri.getPathSegments().get(1);
+            if (selection != null) res.selection = teamIdColumn + "=" + teamId + " and (" + selection + ")";
+            else
+                res.selection = teamIdColumn + "=" + teamId;
+        }
+
+        // Keyset pagination of the meetings: meeting?limit=<n>&before_date=<date>&before_id=<id>
+        if (matchedId == URI_TYPE_MEETING || matchedId == URI_TYPE_TEAM_MEETING) {
+            String limit = uri.getQueryParameter(MeetingColumns.QUERY_PARAMETER_LIMIT);
+            String beforeDate = uri.getQueryParameter(MeetingColumns.QUERY_PARAMETER_BEFORE_DATE);
+            String beforeId = uri.getQueryParameter(MeetingColumns.QUERY_PARAMETER_BEFORE_ID);
+            if (limit != null) {
+                res.limit = String.valueOf(Integer.parseInt(limit));
+                res.isPage = true;
+            }
+            if (beforeDate != null && beforeId != null) {
+                if (res.selection != null) res.selection = "(" + res.selection + ") and " + SELECTION_MEETING_PAGE_KEYSET;
+                else
+                    res.selection = SELECTION_MEETING_PAGE_KEYSET;
+                String date = String.valueOf(Long.parseLong(beforeDate));
+                res.keysetArgs = new String[] { date, date, String.valueOf(Long.parseLong(beforeId)) };
+                res.isPage = true;
+            }
+            if (res.isPage) res.orderBy = MeetingColumns.PAGE_ORDER;
+        }
+
         return res;
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Keeps the compiled statements of the frequent writes of the provider, so they are only compiled once per database connection.
+ *
+ * A statement is removed from the cache by {@link #acquire(SQLiteDatabase, String)} while it's being bound and executed, and put back by
+ * {@link #release(SQLiteDatabase, String, SQLiteStatement)}. This way, two threads never bind arguments to the same statement, and no lock is held while
+ * a statement waits for the database.
+ */
+class StatementCache {
+    private static final String TAG = Constants.TAG + "/" + StatementCache.class.getSimpleName();
+
+    private static final int MAX_SIZE = 16;
+
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+    private SQLiteDatabase mDb;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @return a compiled statement for the given sql, from the cache if possible. It must be given back with {@link #release(SQLiteDatabase, String, SQLiteStatement)}.
+     */
+    SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+        synchronized (this) {
+            if (db != mDb) {
+                // The database was reopened: the statements of the previous connection can't be used anymore.
+                clear();
+                mDb = db;
+            }
+            SQLiteStatement statement = mStatements.remove(sql);
+            if (statement != null) {
+                mHitCount++;
+                return statement;
+            }
+            mMissCount++;
+        }
+        Log.v(TAG, "compile " + sql);
+        return db.compileStatement(sql);
+    }
+
+    /**
+     * Put back a statement returned by {@link #acquire(SQLiteDatabase, String)}, so it can be reused.
+     */
+    void release(SQLiteDatabase db, String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (db == mDb && mStatements.size() < MAX_SIZE && !mStatements.containsKey(sql)) {
+                mStatements.put(sql, statement);
+                return;
+            }
+        }
+        // The database was reopened, the cache is full, or another thread already put back the same statement.
+        statement.close();
+    }
+
+    /**
+     * Bind the given arguments to the statement, in order.
+     */
+    static void bindAll(SQLiteStatement statement, Object... args) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            int index = i + 1;
+            if (arg == null) statement.bindNull(index);
+            else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte)
+                statement.bindLong(index, ((Number) arg).longValue());
+            else if (arg instanceof Boolean) statement.bindLong(index, (Boolean) arg ? 1 : 0);
+            else if (arg instanceof Float || arg instanceof Double) statement.bindDouble(index, ((Number) arg).doubleValue());
+            else if (arg instanceof byte[]) statement.bindBlob(index, (byte[]) arg);
+            else statement.bindString(index, arg.toString());
+        }
+    }
+
+    /**
+     * @return the number of statements which were found in the cache, and which had to be compiled.
+     */
+    synchronized Bundle getStats() {
+        Bundle result = new Bundle(2);
+        result.putLong(ScrumChatterProvider.EXTRA_STATEMENTS_REUSED, mHitCount);
+        result.putLong(ScrumChatterProvider.EXTRA_STATEMENTS_COMPILED, mMissCount);
+        return result;
+    }
+
+    private void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Table, column names, and column types (enums) for the talk_segment table.
+ *
+ * A row in this table is one turn of a member talking in a meeting. Rows are only appended, when the member stops talking.
+ * Inserting a row adds its duration to the member's duration in the meeting_member table, and marks the member as not talking.
+ */
+public class TalkSegmentColumns implements BaseColumns {
+    static final String TABLE_NAME = "talk_segment";
+    public static final Uri CONTENT_URI = Uri.parse(ScrumChatterProvider.CONTENT_URI_BASE + "/" + TABLE_NAME);
+
+    public static final String _ID = BaseColumns._ID;
+
+    public static final String MEETING_ID = "meeting_id";
+    public static final String MEMBER_ID = "member_id";
+    /**
+     * When the member started talking, in milliseconds.
+     */
+    public static final String START_TIME = "start_time";
+    /**
+     * When the member stopped talking, in milliseconds.
+     */
+    public static final String END_TIME = "end_time";
+
+    static final String DEFAULT_ORDER = START_TIME;
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+/**
+ * Changes to the talk state of the members of one meeting, written in one call to the provider: see
+ * {@link ScrumChatterProvider#METHOD_WRITE_TALK_STATE}.
+ */
+public class TalkStateWrite {
+    private final long mMeetingId;
+    private final LongList mDeletedTurns = new LongList();
+    private final LongList mTurns = new LongList();
+    private final LongList mTalkStartTimes = new LongList();
+    private final LongList mTalkStates = new LongList();
+
+    /**
+     * The values of a write, one after the other, without boxing them.
+     */
+    private static class LongList {
+        private long[] mValues = new long[12];
+        private int mSize;
+
+        void add(long... values) {
+            if (mSize + values.length > mValues.length) mValues = Arrays.copyOf(mValues, Math.max(mValues.length * 2, mSize + values.length));
+            System.arraycopy(values, 0, mValues, mSize, values.length);
+            mSize += values.length;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+
+    public TalkStateWrite(long meetingId) {
+        mMeetingId = meetingId;
+    }
+
+    /**
+     * Delete a turn which was undone.
+     */
+    public void deleteTurn(long memberId, long startTime) {
+        mDeletedTurns.add(memberId, startTime);
+    }
+
+    /**
+     * Record a turn. It's added to the duration of the member, who stops talking, unless they started talking again since.
+     */
+    public void insertTurn(long memberId, long startTime, long endTime) {
+        mTurns.add(memberId, startTime, endTime);
+    }
+
+    /**
+     * Save the time a member started talking.
+     */
+    public void setTalkStartTime(long memberId, long talkStartTime) {
+        mTalkStartTimes.add(memberId, talkStartTime);
+    }
+
+    /**
+     * Overwrite the duration and the start time of a member, after the turns are deleted and inserted.
+     */
+    public void setTalkState(long memberId, long duration, long talkStartTime) {
+        mTalkStates.add(memberId, duration, talkStartTime);
+    }
+
+    public boolean isEmpty() {
+        return mDeletedTurns.mSize == 0 && mTurns.mSize == 0 && mTalkStartTimes.mSize == 0 && mTalkStates.mSize == 0;
+    }
+
+    /**
+     * Write the changes in one transaction.
+     *
+     * @param notify if true, notify the observers of the members of the meeting.
+     * @throws android.database.SQLException if the changes couldn't be written. None of them are written in that case.
+     */
+    @WorkerThread
+    public void write(Context context, boolean notify) {
+        Bundle extras = new Bundle(6);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mMeetingId);
+        extras.putLongArray(ScrumChatterProvider.EXTRA_DELETED_TURNS, mDeletedTurns.toArray());
+        extras.putLongArray(ScrumChatterProvider.EXTRA_TURNS, mTurns.toArray());
+        extras.putLongArray(ScrumChatterProvider.EXTRA_TALK_START_TIMES, mTalkStartTimes.toArray());
+        extras.putLongArray(ScrumChatterProvider.EXTRA_TALK_STATES, mTalkStates.toArray());
+        extras.putBoolean(ScrumChatterProvider.EXTRA_NOTIFY, notify);
+        context.getContentResolver().call(ScrumChatterProvider.CONTENT_URI, ScrumChatterProvider.METHOD_WRITE_TALK_STATE, null, extras);
+    }
+
+    @Override
+    public String toString() {
+        return "TalkStateWrite [meeting=" + mMeetingId + ", deletedTurns=" + mDeletedTurns.mSize / 2 + ", turns=" + mTurns.mSize / 3
+                + ", talkStartTimes=" + mTalkStartTimes.mSize / 2 + ", talkStates=" + mTalkStates.mSize / 3 + "]";
+    }
+}
@@ -38,6 +38,14 @@ public final class Prefs {
     }
 
     static final String PREF_THEME = "PREF_THEME";
+    static final String PREF_WRITE_AHEAD_LOGGING = "PREF_WRITE_AHEAD_LOGGING";
+    private static final String PREF_MEMBER_TIMEBOX = "PREF_MEMBER_TIMEBOX";
+    private static final String PREF_MEETING_TIMEBOX = "PREF_MEETING_TIMEBOX";
+    private static final String PREF_TEXT_EXPORT_PER_TEAM = "PREF_TEXT_EXPORT_PER_TEAM";
+    private static final String PREF_TEXT_EXPORT_GZIP = "PREF_TEXT_EXPORT_GZIP";
+    // Followed by the team id
+    private static final String PREF_EXPORT_WATERMARK_MEETING_DATE = "PREF_EXPORT_WATERMARK_MEETING_DATE_";
+    private static final String PREF_EXPORT_WATERMARK_MEETING_ID = "PREF_EXPORT_WATERMARK_MEETING_ID_";
     private static final String TAG = Constants.TAG + "/" + Prefs.class.getSimpleName();
 
     private static Prefs INSTANCE;
@@ -83,4 +91,95 @@ public final class Prefs {
         }
         return Theme.Light;
     }
+
+    /**
+     * @return true if the database uses write-ahead logging. This is only configurable from Jelly Bean: see
+     * {@link ca.rmen.android.scrumchatter.provider.ScrumChatterDatabase#onConfigure}.
+     */
+    public boolean isWriteAheadLoggingEnabled() {
+        return mPrefs.getBoolean(PREF_WRITE_AHEAD_LOGGING, true);
+    }
+
+    /**
+     * @return the time, in seconds, a member may talk in a meeting before we alert, or 0 if there's no timebox.
+     */
+    public int getMemberTimeboxSeconds() {
+        return getIntString(PREF_MEMBER_TIMEBOX);
+    }
+
+    /**
+     * @return the time, in minutes, a meeting may last before we alert, or 0 if there's no timebox.
+     */
+    public int getMeetingTimeboxMinutes() {
+        return getIntString(PREF_MEETING_TIMEBOX);
+    }
+
+    /**
+     * @return true if the CSV and TSV exports have one file per team, in a zip file.
+     */
+    public boolean isTextExportPerTeam() {
+        return mPrefs.getBoolean(PREF_TEXT_EXPORT_PER_TEAM, false);
+    }
+
+    /**
+     * @return true if the CSV and TSV exports of all the teams in one file are compressed with gzip.
+     */
+    public boolean isTextExportCompressed() {
+        return mPrefs.getBoolean(PREF_TEXT_EXPORT_GZIP, false);
+    }
+
+    /**
+     * @return the date of the last finished meeting of the given team which was exported, or 0 if none was exported.
+     */
+    public long getExportWatermarkMeetingDate(long teamId) {
+        return mPrefs.getLong(PREF_EXPORT_WATERMARK_MEETING_DATE + teamId, 0);
+    }
+
+    /**
+     * @return the id of the last finished meeting of the given team which was exported, or 0 if none was exported.
+     */
+    public long getExportWatermarkMeetingId(long teamId) {
+        return mPrefs.getLong(PREF_EXPORT_WATERMARK_MEETING_ID + teamId, 0);
+    }
+
+    public void setExportWatermark(long teamId, long meetingDate, long meetingId) {
+        mPrefs.edit()
+                .putLong(PREF_EXPORT_WATERMARK_MEETING_DATE + teamId, meetingDate)
+                .putLong(PREF_EXPORT_WATERMARK_MEETING_ID + teamId, meetingId)
+                .apply();
+    }
+
+    /**
+     * Forget the export watermark of the given team: the next export since the last one will contain all its finished meetings.
+     */
+    public void removeExportWatermark(long teamId) {
+        mPrefs.edit()
+                .remove(PREF_EXPORT_WATERMARK_MEETING_DATE + teamId)
+                .remove(PREF_EXPORT_WATERMARK_MEETING_ID + teamId)
+                .apply();
+    }
+
+    /**
+     * Forget the export watermarks of all the teams. The ids of the teams and the meetings are reused after a DB import.
+     */
+    public void removeExportWatermarks() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.startsWith(PREF_EXPORT_WATERMARK_MEETING_DATE) || key.startsWith(PREF_EXPORT_WATERMARK_MEETING_ID)) editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return the value of a ListPreference of numbers, or 0 if it's not set.
+     */
+    private int getIntString(String key) {
+        String value = mPrefs.getString(key, "0");
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.v(TAG, "Invalid value " + value + " for " + key, e);
+            return 0;
+        }
+    }
 }
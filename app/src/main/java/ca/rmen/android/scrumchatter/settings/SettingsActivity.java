@@ -24,10 +24,12 @@ package ca.rmen.android.scrumchatter.settings;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.TaskStackBuilder;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
 
 import ca.rmen.android.scrumchatter.R;
@@ -73,6 +75,11 @@ public class SettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle bundle, String s) {
             addPreferencesFromResource(R.xml.pref_general);
+            // The database is only configured when it's opened from Jelly Bean: before that, the setting would do nothing.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                Preference writeAheadLogging = findPreference(Prefs.PREF_WRITE_AHEAD_LOGGING);
+                if (writeAheadLogging != null) getPreferenceScreen().removePreference(writeAheadLogging);
+            }
         }
     }
 
@@ -35,6 +35,7 @@ import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
 import ca.rmen.android.scrumchatter.dialog.InputDialogFragment.InputValidator;
+import ca.rmen.android.scrumchatter.meeting.detail.MeetingSessions;
 import ca.rmen.android.scrumchatter.provider.TeamColumns;
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
@@ -192,8 +193,12 @@ public class Teams {
     public void deleteTeam(final Uri teamUri) {
         Log.v(TAG, "deleteTeam, uri = " + teamUri);
         Schedulers.io().scheduleDirect(() -> {
+            // forget the meetings in progress of this team, which are deleted with it
+            long teamId = Long.parseLong(teamUri.getLastPathSegment());
+            MeetingSessions.getInstance(mActivity).discardTeam(teamId);
             // delete this team
             mActivity.getContentResolver().delete(teamUri, null, null);
+            Prefs.getInstance(mActivity).removeExportWatermark(teamId);
             // pick another current team
             selectFirstTeam();
         });
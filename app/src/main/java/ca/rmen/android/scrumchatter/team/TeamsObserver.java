@@ -48,7 +48,9 @@ public class TeamsObserver {
 
     public void register() {
         Prefs.getInstance(mContext).register(mSharedPrefsListener);
-        mContext.getContentResolver().registerContentObserver(TeamColumns.CONTENT_URI, true, mContentObserver);
+        // The provider notifies the team uri itself when teams change. We don't observe its descendants:
+        // they include the meetings and members of each team.
+        mContext.getContentResolver().registerContentObserver(TeamColumns.CONTENT_URI, false, mContentObserver);
 
     }
 
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.util;
+
+import java.util.Locale;
+
+/**
+ * A histogram of latencies, in microseconds, in the style of HdrHistogram: each power of two is divided into
+ * {@value #SUB_BUCKET_COUNT} buckets of the same width. Recording a value is O(1) and allocates nothing, and the percentiles are
+ * precise to about 3%, whatever the range of the values.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Enough buckets for the largest long.
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+    private long mSum;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    /**
+     * @param latencyUs a latency in microseconds. Negative values are recorded as 0.
+     */
+    public synchronized void record(long latencyUs) {
+        long value = Math.max(0, latencyUs);
+        mCounts[getIndex(value)]++;
+        mTotalCount++;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        mSum += value;
+    }
+
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return the highest latency, in microseconds, below which the given percentage of the recorded latencies fall, or 0 if
+     * nothing was recorded.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) return 0;
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= countAtPercentile) return Math.min(getHighestValue(i), mMax);
+        }
+        return mMax;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+        mSum = 0;
+    }
+
+    /**
+     * @return the number of latencies, the mean, the min, the main percentiles and the max, in milliseconds.
+     */
+    @Override
+    public synchronized String toString() {
+        if (mTotalCount == 0) return mName + ": no data";
+        StringBuilder result = new StringBuilder(mName).append(": count=").append(mTotalCount)
+                .append(", mean=").append(formatMs(mSum / mTotalCount))
+                .append(", min=").append(formatMs(mMin));
+        for (double percentile : PERCENTILES) {
+            result.append(", p").append(String.format(Locale.US, "%s", percentile).replace(".0", ""))
+                    .append("=").append(formatMs(getValueAtPercentile(percentile)));
+        }
+        result.append(", max=").append(formatMs(mMax));
+        return result.toString();
+    }
+
+    /**
+     * The values below {@link #SUB_BUCKET_COUNT} have their own bucket. Above, the bucket is given by the highest bit set,
+     * and the next {@link #SUB_BUCKET_BITS} bits.
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private static String formatMs(long valueUs) {
+        return String.format(Locale.US, "%.1fms", valueUs / 1000f);
+    }
+}
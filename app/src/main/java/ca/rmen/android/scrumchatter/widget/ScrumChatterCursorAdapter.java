@@ -52,4 +52,11 @@ public abstract class ScrumChatterCursorAdapter<T extends RecyclerView.ViewHolde
     protected Cursor getCursor() {
         return mCursor;
     }
+
+    /**
+     * Use the given cursor, without notifying that the data changed. The subclass notifies the changes itself.
+     */
+    protected void setCursor(Cursor cursor) {
+        mCursor = cursor;
+    }
 }
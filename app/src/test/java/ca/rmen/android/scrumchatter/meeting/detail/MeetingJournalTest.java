@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Drives a {@link MeetingJournal} the way {@link MeetingSession} does, kills the session at random points, and checks that
+ * the DB contains all the toggles which weren't undone, once the journal is recovered.
+ *
+ * The DB is modelled by its talk segments, and by the talk start time of each member: inserting a talk segment marks its
+ * member as not talking, as the trigger of the talk_segment table does.
+ */
+public class MeetingJournalTest {
+
+    private static final long MEETING_ID = 1;
+    private static final int MEMBER_COUNT = 4;
+    private static final int SEED_COUNT = 200;
+    private static final int RUN_COUNT = 20;
+    private static final int MAX_STEPS = 200;
+    private static final long NO_MEMBER = -1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * The turns and the talking member which result from a list of toggles.
+     */
+    private static class TalkState {
+        // The turns, by "member id/start time", with their end time.
+        final Map<String, Long> turns = new TreeMap<>();
+        final Map<Long, Long> talkStartTimes = new TreeMap<>();
+
+        void addTurn(long memberId, long startTime, long endTime) {
+            turns.put(memberId + "/" + startTime, endTime);
+            talkStartTimes.remove(memberId);
+        }
+
+        long getTalkingMemberId() {
+            return talkStartTimes.isEmpty() ? NO_MEMBER : talkStartTimes.keySet().iterator().next();
+        }
+
+        long getTalkStartTime() {
+            return talkStartTimes.isEmpty() ? 0 : talkStartTimes.values().iterator().next();
+        }
+
+        Map<Long, Long> getDurations() {
+            Map<Long, Long> durations = new HashMap<>();
+            for (Map.Entry<String, Long> turn : turns.entrySet()) {
+                String[] key = turn.getKey().split("/");
+                long memberId = Long.parseLong(key[0]);
+                Long duration = durations.get(memberId);
+                durations.put(memberId, (duration == null ? 0 : duration) + turn.getValue() - Long.parseLong(key[1]));
+            }
+            return durations;
+        }
+    }
+
+    @Test
+    public void testRecoverAfterKill() throws IOException {
+        for (long seed = 0; seed < SEED_COUNT; seed++) {
+            testRecoverAfterKill(seed);
+        }
+    }
+
+    @Test
+    public void testNothingToRecoverAfterCommit() throws IOException {
+        File file = mFolder.newFile();
+        MeetingJournal journal = MeetingJournal.open(file, MEETING_ID, NO_MEMBER, 0);
+        journal.append(1, 1000);
+        journal.append(2, 2000);
+        journal.commit(journal.getEventCount(), 2, 2000);
+        assertNull(MeetingJournal.read(file));
+    }
+
+    @Test
+    public void testRemoveLastCapturedEvent() throws IOException {
+        File file = mFolder.newFile();
+        MeetingJournal journal = MeetingJournal.open(file, MEETING_ID, NO_MEMBER, 0);
+        journal.append(1, 1000);
+        journal.getEventCount();
+        assertEquals(false, journal.removeLast());
+        journal.append(2, 2000);
+        assertEquals(true, journal.removeLast());
+        MeetingJournal.Recovery recovery = MeetingJournal.read(file);
+        assertEquals(MEETING_ID, recovery.meetingId);
+        assertEquals(0, recovery.turns.size());
+        assertEquals(1, recovery.talkingMemberId);
+        assertEquals(1000, recovery.talkStartTime);
+    }
+
+    private void testRecoverAfterKill(long seed) throws IOException {
+        Random random = new Random(seed);
+        File file = mFolder.newFile();
+        // The toggles which weren't undone: the state the DB must have once the journal is recovered.
+        List<long[]> toggles = new ArrayList<>();
+        TalkState db = new TalkState();
+        long time = 1000;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            MeetingJournal journal = MeetingJournal.open(file, MEETING_ID, db.getTalkingMemberId(), db.getTalkStartTime());
+            // The write in progress: the toggles and the journal events it covers, or -1.
+            int writtenToggleCount = -1;
+            int writtenEventCount = -1;
+            boolean isDbWritten = false;
+            int steps = random.nextInt(MAX_STEPS);
+            for (int step = 0; step < steps; step++) {
+                int action = random.nextInt(10);
+                if (action < 6) {
+                    time += 1 + random.nextInt(10000);
+                    long memberId = 1 + random.nextInt(MEMBER_COUNT);
+                    if (journal.append(memberId, time)) toggles.add(new long[]{memberId, time});
+                } else if (action == 6) {
+                    if (journal.removeLast()) toggles.remove(toggles.size() - 1);
+                } else if (writtenEventCount < 0) {
+                    // Start a write.
+                    writtenToggleCount = toggles.size();
+                    writtenEventCount = journal.getEventCount();
+                } else if (!isDbWritten) {
+                    write(db, toggles.subList(0, writtenToggleCount));
+                    isDbWritten = true;
+                } else {
+                    TalkState written = replay(toggles.subList(0, writtenToggleCount));
+                    journal.commit(writtenEventCount, written.getTalkingMemberId(), written.getTalkStartTime());
+                    writtenEventCount = -1;
+                    isDbWritten = false;
+                }
+            }
+            // The process is killed here. The next session recovers the journal first.
+            recover(db, MeetingJournal.read(file));
+            TalkState expected = replay(toggles);
+            String message = "seed " + seed + ", run " + run;
+            assertEquals(message, expected.turns, db.turns);
+            assertEquals(message, expected.getDurations(), db.getDurations());
+            assertEquals(message, expected.talkStartTimes, db.talkStartTimes);
+        }
+    }
+
+    /**
+     * @return the turns and the talking member after the given toggles.
+     */
+    private static TalkState replay(List<long[]> toggles) {
+        TalkState talkState = new TalkState();
+        for (long[] toggle : toggles) {
+            long talkingMemberId = talkState.getTalkingMemberId();
+            if (talkingMemberId != NO_MEMBER) talkState.addTurn(talkingMemberId, talkState.getTalkStartTime(), toggle[1]);
+            if (toggle[0] != talkingMemberId) talkState.talkStartTimes.put(toggle[0], toggle[1]);
+        }
+        return talkState;
+    }
+
+    /**
+     * Write the given toggles to the DB, as the session does: the new turns, and the talk start times.
+     */
+    private static void write(TalkState db, List<long[]> toggles) {
+        TalkState written = replay(toggles);
+        db.turns.putAll(written.turns);
+        db.talkStartTimes.clear();
+        db.talkStartTimes.putAll(written.talkStartTimes);
+    }
+
+    /**
+     * Write the given recovery to the DB, as {@link MeetingJournal} does: the turns which aren't in the DB yet, and the talking
+     * member.
+     */
+    private static void recover(TalkState db, MeetingJournal.Recovery recovery) {
+        if (recovery == null) return;
+        assertEquals(MEETING_ID, recovery.meetingId);
+        for (MeetingJournal.Turn turn : recovery.turns) {
+            if (!db.turns.containsKey(turn.memberId + "/" + turn.startTime)) db.addTurn(turn.memberId, turn.startTime, turn.endTime);
+        }
+        if (recovery.talkingMemberId != NO_MEMBER) db.talkStartTimes.put(recovery.talkingMemberId, recovery.talkStartTime);
+    }
+}
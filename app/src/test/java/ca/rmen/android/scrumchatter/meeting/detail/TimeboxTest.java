@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link Timebox} with a fake clock, which ticks every 100 ms like the ticker of the meeting screen.
+ */
+public class TimeboxTest {
+
+    private static final long START = 1_500_000_000_000L;
+    private static final long STEP_MS = 100;
+    private static final long MEMBER_1 = 1;
+    private static final long MEMBER_2 = 2;
+
+    private long mNow = START;
+    // The alerts, with the time at which they were given.
+    private final List<String> mAlerts = new ArrayList<>();
+
+    private final Timebox.Listener mListener = new Timebox.Listener() {
+        @Override
+        public void onMemberTimeboxExceeded(long memberId) {
+            mAlerts.add("member " + memberId + "@" + (mNow - START));
+        }
+
+        @Override
+        public void onMeetingTimeboxExceeded() {
+            mAlerts.add("meeting@" + (mNow - START));
+        }
+    };
+
+    @Test
+    public void testIsEnabled() {
+        assertFalse(new Timebox(0, 0, mListener, START).isEnabled());
+        assertTrue(new Timebox(30, 0, mListener, START).isEnabled());
+        assertTrue(new Timebox(0, 15, mListener, START).isEnabled());
+    }
+
+    @Test
+    public void testMemberTimebox() {
+        Timebox timebox = new Timebox(30, 0, mListener, START);
+        timebox.setTalkState(MEMBER_1, 0, START);
+        advanceTo(timebox, START + 60000);
+        assertAlerts("member 1@30000");
+    }
+
+    @Test
+    public void testMemberTimeboxAfterToggles() {
+        Timebox timebox = new Timebox(30, 0, mListener, START);
+        // Member 1 talks for 10 seconds, then member 2 for 25 seconds.
+        timebox.setTalkState(MEMBER_1, 0, START);
+        advanceTo(timebox, START + 10000);
+        timebox.setTalkState(MEMBER_1, 10, 0);
+        timebox.setTalkState(MEMBER_2, 0, mNow);
+        advanceTo(timebox, START + 35000);
+        timebox.setTalkState(MEMBER_2, 25, 0);
+        // Member 1 talks again: they have 20 seconds left.
+        timebox.setTalkState(MEMBER_1, 10, mNow);
+        advanceTo(timebox, START + 100000);
+        assertAlerts("member 1@55000");
+    }
+
+    @Test
+    public void testMemberOverTimebox() {
+        Timebox timebox = new Timebox(30, 0, mListener, START);
+        // The member was already alerted in a previous turn: they aren't alerted again.
+        timebox.setTalkState(MEMBER_1, 40, START);
+        advanceTo(timebox, START + 100000);
+        assertAlerts();
+    }
+
+    @Test
+    public void testMemberTimeboxWrapAround() {
+        // 100 seconds: more than one turn of the wheel.
+        Timebox timebox = new Timebox(100, 0, mListener, START);
+        timebox.setTalkState(MEMBER_1, 0, START);
+        advanceTo(timebox, START + 200000);
+        assertAlerts("member 1@100000");
+    }
+
+    @Test
+    public void testMeetingTimebox() {
+        Timebox timebox = new Timebox(0, 2, mListener, START);
+        timebox.setMeetingStartDate(START, mNow);
+        advanceTo(timebox, START + 60000);
+        // Setting the start date again doesn't reschedule the alert.
+        timebox.setMeetingStartDate(mNow, mNow);
+        advanceTo(timebox, START + 300000);
+        assertAlerts("meeting@120000");
+    }
+
+    @Test
+    public void testMeetingOverTimebox() {
+        Timebox timebox = new Timebox(0, 2, mListener, START);
+        // The meeting started 3 minutes ago: it was already alerted.
+        timebox.setMeetingStartDate(START - 180000, mNow);
+        advanceTo(timebox, START + 300000);
+        assertAlerts();
+    }
+
+    @Test
+    public void testMemberAndMeetingTimebox() {
+        Timebox timebox = new Timebox(30, 1, mListener, START);
+        timebox.setMeetingStartDate(START, mNow);
+        timebox.setTalkState(MEMBER_1, 0, START);
+        advanceTo(timebox, START + 40000);
+        timebox.setTalkState(MEMBER_1, 40, 0);
+        timebox.setTalkState(MEMBER_2, 0, mNow);
+        advanceTo(timebox, START + 100000);
+        assertAlerts("member 1@30000", "meeting@60000", "member 2@70000");
+    }
+
+    @Test
+    public void testCancel() {
+        Timebox timebox = new Timebox(30, 1, mListener, START);
+        timebox.setMeetingStartDate(START, mNow);
+        timebox.setTalkState(MEMBER_1, 0, START);
+        timebox.setTalkState(MEMBER_2, 0, START);
+        advanceTo(timebox, START + 10000);
+        timebox.cancel();
+        advanceTo(timebox, START + 300000);
+        assertAlerts();
+    }
+
+    /**
+     * Advance the fake clock by steps, up to the given time, and tick at each step.
+     */
+    private void advanceTo(Timebox timebox, long time) {
+        while (mNow < time) {
+            mNow = Math.min(mNow + STEP_MS, time);
+            timebox.onTick(mNow);
+        }
+    }
+
+    private void assertAlerts(String... alerts) {
+        assertEquals(Arrays.asList(alerts), mAlerts);
+    }
+}
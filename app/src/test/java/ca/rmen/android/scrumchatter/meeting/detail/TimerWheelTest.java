@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link TimerWheel} of 64 slots of one second with a fake clock, advanced by small steps like the ticker of the
+ * meeting screen.
+ */
+public class TimerWheelTest {
+
+    private static final long TICK_MS = 1000;
+    private static final int SLOT_COUNT = 64;
+    private static final long START = 1_000_000_123L;
+    private static final long STEP_MS = 250;
+
+    private TimerWheel mWheel;
+    private long mNow;
+    // The times at which the tasks ran, by task name.
+    private final List<String> mRuns = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mNow = START;
+        mWheel = new TimerWheel(TICK_MS, SLOT_COUNT, mNow);
+        mRuns.clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlotCountNotPowerOfTwo() {
+        new TimerWheel(TICK_MS, 60, START);
+    }
+
+    @Test
+    public void testRunAtFirstTickAfterDeadline() {
+        TimerWheel.Timeout timeout = newTimeout("a");
+        mWheel.schedule(timeout, START + 2500);
+        assertTrue(timeout.isScheduled());
+        advanceTo(START + 2500);
+        assertRuns();
+        advanceTo(START + 30000);
+        assertRuns("a@" + getFirstTickAtOrAfter(START + 2500));
+        assertFalse(timeout.isScheduled());
+    }
+
+    @Test
+    public void testDeadlineInThePast() {
+        mWheel.schedule(newTimeout("a"), START - 5000);
+        advanceTo(START + 5000);
+        assertRuns("a@" + getFirstTickAtOrAfter(START + 1));
+    }
+
+    @Test
+    public void testRescheduleLater() {
+        TimerWheel.Timeout timeout = newTimeout("a");
+        mWheel.schedule(timeout, START + 5000);
+        advanceTo(START + 3000);
+        // The member stopped and started talking again: their deadline moves.
+        mWheel.schedule(timeout, START + 12000);
+        advanceTo(START + 30000);
+        assertRuns("a@" + getFirstTickAtOrAfter(START + 12000));
+    }
+
+    @Test
+    public void testRescheduleEarlier() {
+        TimerWheel.Timeout timeout = newTimeout("a");
+        mWheel.schedule(timeout, START + 20000);
+        mWheel.schedule(timeout, START + 4000);
+        advanceTo(START + 30000);
+        assertRuns("a@" + getFirstTickAtOrAfter(START + 4000));
+    }
+
+    @Test
+    public void testRescheduleAfterRun() {
+        TimerWheel.Timeout timeout = newTimeout("a");
+        mWheel.schedule(timeout, START + 2000);
+        advanceTo(START + 5000);
+        mWheel.schedule(timeout, START + 8000);
+        advanceTo(START + 10000);
+        assertRuns("a@" + getFirstTickAtOrAfter(START + 2000), "a@" + getFirstTickAtOrAfter(START + 8000));
+    }
+
+    @Test
+    public void testWrapAround() {
+        // 100 ticks: the slot of this deadline is visited 64 ticks before it, when the other timeout is due.
+        long deadline = START + 100 * TICK_MS;
+        mWheel.schedule(newTimeout("late"), deadline);
+        mWheel.schedule(newTimeout("early"), deadline - SLOT_COUNT * TICK_MS);
+        advanceTo(deadline + 10000);
+        assertRuns("early@" + getFirstTickAtOrAfter(deadline - SLOT_COUNT * TICK_MS), "late@" + getFirstTickAtOrAfter(deadline));
+    }
+
+    @Test
+    public void testWrapAroundSeveralRounds() {
+        long deadline = START + 5 * SLOT_COUNT * TICK_MS + 500;
+        mWheel.schedule(newTimeout("a"), deadline);
+        advanceTo(deadline + 2000);
+        assertRuns("a@" + getFirstTickAtOrAfter(deadline));
+    }
+
+    @Test
+    public void testLongPause() {
+        // The ticker doesn't run while the screen is off: the wheel catches up at the next tick.
+        mWheel.schedule(newTimeout("a"), START + 10000);
+        mWheel.schedule(newTimeout("b"), START + 200000);
+        mNow = START + 150000;
+        mWheel.advance(mNow);
+        assertRuns("a@" + mNow);
+        advanceTo(START + 250000);
+        assertRuns("a@" + (START + 150000), "b@" + getFirstTickAtOrAfter(START + 200000));
+    }
+
+    @Test
+    public void testCancel() {
+        TimerWheel.Timeout timeout = newTimeout("a");
+        mWheel.schedule(timeout, START + 3000);
+        advanceTo(START + 1000);
+        mWheel.cancel(timeout);
+        assertFalse(timeout.isScheduled());
+        advanceTo(START + 100000);
+        assertRuns();
+        // Cancelling again does nothing.
+        mWheel.cancel(timeout);
+    }
+
+    @Test
+    public void testCancelInSameSlot() {
+        // These timeouts are in the same slot, in later rounds: cancel the first, a middle and the last one of its list.
+        long deadline = START + 5000;
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            TimerWheel.Timeout timeout = newTimeout(String.valueOf(i));
+            timeouts.add(timeout);
+            mWheel.schedule(timeout, deadline + i * SLOT_COUNT * TICK_MS);
+        }
+        mWheel.cancel(timeouts.get(0));
+        mWheel.cancel(timeouts.get(2));
+        mWheel.cancel(timeouts.get(4));
+        advanceTo(deadline + 5 * SLOT_COUNT * TICK_MS);
+        assertRuns("1@" + getFirstTickAtOrAfter(deadline + SLOT_COUNT * TICK_MS),
+                "3@" + getFirstTickAtOrAfter(deadline + 3 * SLOT_COUNT * TICK_MS));
+    }
+
+    @Test
+    public void testTaskReschedulesItself() {
+        TimerWheel.Timeout[] timeout = new TimerWheel.Timeout[1];
+        timeout[0] = new TimerWheel.Timeout(() -> {
+            mRuns.add("a@" + mNow);
+            mWheel.schedule(timeout[0], mNow + 3000);
+        });
+        mWheel.schedule(timeout[0], START + 3000);
+        long first = getFirstTickAtOrAfter(START + 3000);
+        long second = getFirstTickAtOrAfter(first + 3000);
+        long third = getFirstTickAtOrAfter(second + 3000);
+        advanceTo(third);
+        assertRuns("a@" + first, "a@" + second, "a@" + third);
+    }
+
+    private TimerWheel.Timeout newTimeout(String name) {
+        return new TimerWheel.Timeout(() -> mRuns.add(name + "@" + mNow));
+    }
+
+    /**
+     * Advance the clock and the wheel by small steps, up to the given time.
+     */
+    private void advanceTo(long time) {
+        while (mNow < time) {
+            mNow = Math.min(mNow + STEP_MS, time);
+            mWheel.advance(mNow);
+        }
+    }
+
+    /**
+     * @return the first time the fake clock reaches, at or after the given deadline, at the end of a tick.
+     */
+    private static long getFirstTickAtOrAfter(long deadline) {
+        long tickTime = (deadline + TICK_MS - 1) / TICK_MS * TICK_MS;
+        // The clock advances by steps from START: the wheel sees the tick at the first step at or after it.
+        long steps = (tickTime - START + STEP_MS - 1) / STEP_MS;
+        return START + steps * STEP_MS;
+    }
+
+    private void assertRuns(String... runs) {
+        assertEquals(Arrays.asList(runs), mRuns);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The benchmarks are timed, so they don't run with the unit tests. Run them with: ./gradlew test -Dbenchmark=true
+ * Their results are written to build/reports/benchmarks.
+ */
+final class Benchmarks {
+    private static final String PROPERTY_BENCHMARK = "benchmark";
+    private static final File REPORT_FOLDER = new File("build/reports/benchmarks");
+
+    private Benchmarks() {
+        // prevent instantiation
+    }
+
+    /**
+     * Skip the calling benchmark, unless the benchmarks were requested.
+     */
+    static void assumeEnabled() {
+        assumeTrue("Benchmarks are disabled", Boolean.getBoolean(PROPERTY_BENCHMARK));
+    }
+
+    /**
+     * Write the results of a benchmark to its report, one line per result.
+     */
+    static void report(Class<?> benchmark, List<String> results) throws IOException {
+        if (!REPORT_FOLDER.isDirectory() && !REPORT_FOLDER.mkdirs()) throw new IOException("Couldn't create " + REPORT_FOLDER);
+        Writer writer = new FileWriter(new File(REPORT_FOLDER, benchmark.getSimpleName() + ".txt"));
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            for (String result : results) {
+                writer.write(result);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.provider.BaseColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the queries of the provider use the indexes of {@link ScrumChatterDatabase}, with EXPLAIN QUERY PLAN.
+ * The queries are built the way {@link ScrumChatterProvider} and {@link android.database.sqlite.SQLiteQueryBuilder} build them.
+ */
+public class QueryPlanTest {
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        try {
+            for (String sql : ScrumChatterDatabase.getCreateStatements()) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void testMeetingFirstPage() throws SQLException {
+        List<String> plan = explain(select("*", MeetingColumns.TABLE_NAME,
+                MeetingColumns.TEAM_ID + "=1",
+                MeetingColumns.PAGE_ORDER, "20"));
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "meeting_team_date_idx");
+        assertNoTempBTree(plan);
+    }
+
+    @Test
+    public void testMeetingNextPage() throws SQLException {
+        List<String> plan = explain(select("*", MeetingColumns.TABLE_NAME,
+                "(" + MeetingColumns.TEAM_ID + "=1) and " + ScrumChatterProvider.SELECTION_MEETING_PAGE_KEYSET,
+                MeetingColumns.PAGE_ORDER, "20"));
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "meeting_team_date_idx");
+        assertNoTempBTree(plan);
+    }
+
+    @Test
+    public void testMeetingById() throws SQLException {
+        List<String> plan = explain(select("*", MeetingColumns.TABLE_NAME, BaseColumns._ID + "=1", MeetingColumns.DEFAULT_ORDER, null));
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "INTEGER PRIMARY KEY");
+    }
+
+    @Test
+    public void testTeamMeetingDates() throws SQLException {
+        List<String> plan = explain(select("MIN(" + MeetingColumns.MEETING_DATE + "), MAX(" + MeetingColumns.MEETING_DATE + ")",
+                MeetingColumns.TABLE_NAME, MeetingColumns.TEAM_ID + "=1", MeetingColumns.DEFAULT_ORDER, null));
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "meeting_team_date_idx");
+    }
+
+    @Test
+    public void testMembersOfMeeting() throws SQLException {
+        List<String> plan = explain(select(MeetingMemberColumns._ID + ", " + MeetingMemberColumns.MEMBER_ID + ", " + MemberColumns.NAME + ", "
+                        + MeetingMemberColumns.DURATION + ", " + MeetingColumns.STATE + ", " + MeetingMemberColumns.TALK_START_TIME,
+                ScrumChatterProvider.TABLES_MEETING_MEMBER,
+                MeetingMemberColumns.MEETING_ID + "=1",
+                MemberColumns.NAME + " COLLATE NOCASE", null));
+        assertSearch(plan, MeetingMemberColumns.TABLE_NAME, "sqlite_autoindex_meeting_member_1");
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "INTEGER PRIMARY KEY");
+        assertSearch(plan, MemberColumns.TABLE_NAME, "INTEGER PRIMARY KEY");
+    }
+
+    @Test
+    public void testTeamMeetingMembersSinceLastExport() throws SQLException {
+        // The query of the export since the last one, on the meeting members of one team, after its watermark.
+        List<String> plan = explain(select(MeetingColumns.TEAM_ID + ", " + MeetingMemberColumns.MEETING_ID + ", " + MeetingColumns.MEETING_DATE + ", "
+                        + MeetingColumns.STATE + ", " + MeetingColumns.TOTAL_DURATION + ", " + MeetingMemberColumns.MEMBER_ID + ", "
+                        + MeetingMemberColumns.DURATION,
+                ScrumChatterProvider.TABLES_MEETING_MEMBER,
+                MeetingColumns.TEAM_ID + "=1 and (" + MeetingColumns.STATE + "=2 AND " + MeetingMemberColumns.DURATION + ">0 AND "
+                        + MeetingColumns.MEETING_DATE + ">=? AND (" + MeetingColumns.MEETING_DATE + ">? OR " + MeetingMemberColumns.MEETING_ID + ">?))",
+                MeetingColumns.MEETING_DATE + ", " + MeetingMemberColumns.MEETING_ID, null));
+        assertTrue(plan.toString(), plan.contains("SEARCH meeting USING INDEX meeting_team_date_idx (meeting_team_id=? AND meeting_date>?)"));
+        assertSearch(plan, MeetingMemberColumns.TABLE_NAME, "sqlite_autoindex_meeting_member_1");
+        assertSearch(plan, MemberColumns.TABLE_NAME, "INTEGER PRIMARY KEY");
+    }
+
+    @Test
+    public void testMemberStatsOfTeam() throws SQLException {
+        List<String> plan = explain(select(MemberColumns._ID + ", " + MemberColumns.NAME + ", " + MemberStatsColumns.SUM_DURATION + ", "
+                        + MemberStatsColumns.AVG_DURATION, MemberStatsColumns.TABLE_NAME,
+                MemberStatsColumns.TEAM_ID + "=1 and (" + MemberColumns.DELETED + "=0 )",
+                MemberStatsColumns.SUM_DURATION + " DESC", null));
+        assertSearch(plan, MemberStatsColumns.TABLE_NAME, "member_stats_team_deleted_idx");
+    }
+
+    @Test
+    public void testMemberByName() throws SQLException {
+        List<String> plan = explain(select("count(*)", MemberColumns.TABLE_NAME,
+                MemberColumns.NAME + "=? AND " + MemberColumns.TEAM_ID + "=? AND " + MemberColumns.DELETED + "=0",
+                MemberColumns.DEFAULT_ORDER, null));
+        assertSearch(plan, MemberColumns.TABLE_NAME, "member_team_deleted_name_idx");
+    }
+
+    @Test
+    public void testTalkSegment() throws SQLException {
+        List<String> plan = explain(select(TalkSegmentColumns._ID, TalkSegmentColumns.TABLE_NAME,
+                TalkSegmentColumns.MEETING_ID + "=? AND " + TalkSegmentColumns.START_TIME + "=? AND " + TalkSegmentColumns.MEMBER_ID + "=?",
+                TalkSegmentColumns.DEFAULT_ORDER, null));
+        assertSearch(plan, TalkSegmentColumns.TABLE_NAME, "talk_segment_meeting_start_idx");
+    }
+
+    @Test
+    public void testInsertMeetingMembers() throws SQLException {
+        List<String> plan = explain(ScrumChatterProvider.SQL_INSERT_MEETING_MEMBERS);
+        assertSearch(plan, MemberColumns.TABLE_NAME, "member_team_deleted_name_idx");
+    }
+
+    @Test
+    public void testStopTalking() throws SQLException {
+        List<String> plan = explain(ScrumChatterProvider.SQL_INSERT_STOP_TALKING);
+        assertSearch(plan, MeetingMemberColumns.TABLE_NAME, "sqlite_autoindex_meeting_member_1");
+    }
+
+    @Test
+    public void testDeleteTalkSegment() throws SQLException {
+        List<String> plan = explain(ScrumChatterProvider.SQL_DELETE_TALK_SEGMENT);
+        assertSearch(plan, TalkSegmentColumns.TABLE_NAME, "talk_segment_meeting_start_idx");
+    }
+
+    @Test
+    public void testUpdateTalkState() throws SQLException {
+        assertSearch(explain(ScrumChatterProvider.SQL_UPDATE_TALK_START_TIME), MeetingMemberColumns.TABLE_NAME, "sqlite_autoindex_meeting_member_1");
+        assertSearch(explain(ScrumChatterProvider.SQL_UPDATE_TALK_STATE), MeetingMemberColumns.TABLE_NAME, "sqlite_autoindex_meeting_member_1");
+    }
+
+    @Test
+    public void testStopMeeting() throws SQLException {
+        List<String> plan = explain(ScrumChatterProvider.SQL_UPDATE_STOP_MEETING);
+        assertSearch(plan, MeetingColumns.TABLE_NAME, "INTEGER PRIMARY KEY");
+    }
+
+    /**
+     * @return the query which {@link android.database.sqlite.SQLiteQueryBuilder} builds for the given parameters.
+     */
+    private static String select(String columns, String tables, String where, String orderBy, String limit) {
+        return "SELECT " + columns + " FROM " + tables + " WHERE (" + where + ") ORDER BY " + orderBy
+                + (limit == null ? "" : " LIMIT " + limit);
+    }
+
+    /**
+     * @return the details of each step of the query plan of the given statement.
+     */
+    private List<String> explain(String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        Statement statement = mConnection.createStatement();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + sql);
+            while (resultSet.next()) {
+                plan.add(resultSet.getString("detail"));
+            }
+        } finally {
+            statement.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Assert that the given table is searched with the given index, and never scanned.
+     */
+    private static void assertSearch(List<String> plan, String table, String index) {
+        boolean isSearched = false;
+        for (String step : plan) {
+            assertFalse(table + " is scanned: " + plan, step.startsWith("SCAN " + table + " ") || step.equals("SCAN " + table));
+            if (step.startsWith("SEARCH " + table + " ") && step.contains(index)) isSearched = true;
+        }
+        assertTrue(table + " isn't searched with " + index + ": " + plan, isSearched);
+    }
+
+    private static void assertNoTempBTree(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("The query needs a temporary b-tree: " + plan, step.startsWith("USE TEMP B-TREE"));
+        }
+    }
+}
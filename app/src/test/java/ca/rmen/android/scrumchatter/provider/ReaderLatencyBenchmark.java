@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of the queries of the meeting screen while the toggles of a meeting are being written, with the
+ * rollback journal and with write-ahead logging.
+ *
+ * Without write-ahead logging, the framework opens a single connection to the database, so a query waits for the write
+ * which is using it. This is modelled by sharing one connection between the reader and the writer. With write-ahead logging,
+ * the reader has its own connection.
+ */
+public class ReaderLatencyBenchmark {
+
+    private static final int MEMBER_COUNT = 10;
+    private static final int MEETING_COUNT = 200;
+    private static final long MEETING_ID = MEETING_COUNT + 1;
+    private static final long DURATION_MS = 1000;
+
+    private static final String SQL_START_TALKING = "UPDATE " + MeetingMemberColumns.TABLE_NAME
+            + " SET " + MeetingMemberColumns.TALK_START_TIME + "=?"
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + "=? AND " + MeetingMemberColumns.MEMBER_ID + "=?";
+
+    private static final String SQL_SELECT_MEETING_MEMBERS = "SELECT " + MeetingMemberColumns._ID + ", " + MeetingMemberColumns.MEMBER_ID + ", "
+            + MemberColumns.NAME + ", " + MeetingMemberColumns.DURATION + ", " + MeetingColumns.STATE + ", " + MeetingMemberColumns.TALK_START_TIME
+            + " FROM " + ScrumChatterProvider.TABLES_MEETING_MEMBER
+            + " WHERE (" + MeetingMemberColumns.MEETING_ID + "=?) ORDER BY " + MemberColumns.NAME + " COLLATE NOCASE";
+
+    private static final String SQL_SELECT_MEMBER_STATS = "SELECT " + MemberColumns._ID + ", " + MemberColumns.NAME + ", "
+            + MemberStatsColumns.SUM_DURATION + ", " + MemberStatsColumns.AVG_DURATION
+            + " FROM " + MemberStatsColumns.TABLE_NAME
+            + " WHERE (" + MemberStatsColumns.TEAM_ID + "=1 and (" + MemberColumns.DELETED + "=0 ))";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class Result {
+        long[] readLatenciesNs;
+        int writeCount;
+
+        long getPercentileUs(int percentile) {
+            if (readLatenciesNs.length == 0) return 0;
+            return readLatenciesNs[Math.min(readLatenciesNs.length - 1, readLatenciesNs.length * percentile / 100)] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return readLatenciesNs.length + " reads: p50 " + getPercentileUs(50) + "us, p90 " + getPercentileUs(90) + "us, p99 "
+                    + getPercentileUs(99) + "us, max " + getPercentileUs(100) + "us, while writing " + writeCount + " toggles";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void testReaderLatency() throws Exception {
+        Result rollbackJournal = run(false);
+        Result writeAheadLogging = run(true);
+        assertTrue(rollbackJournal.readLatenciesNs.length > 0);
+        assertTrue(writeAheadLogging.readLatenciesNs.length > 0);
+        Benchmarks.report(ReaderLatencyBenchmark.class, Arrays.asList(
+                "Rollback journal:    " + rollbackJournal,
+                "Write-ahead logging: " + writeAheadLogging));
+    }
+
+    private Result run(boolean isWriteAheadLoggingEnabled) throws Exception {
+        File file = mFolder.newFile();
+        final Connection writer = open(file, isWriteAheadLoggingEnabled);
+        final Connection reader = isWriteAheadLoggingEnabled ? open(file, true) : writer;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            createMeetings(writer);
+            final Result result = new Result();
+            final AtomicBoolean isRunning = new AtomicBoolean(true);
+            final Exception[] writerException = new Exception[1];
+            Thread writerThread = new Thread(() -> {
+                try {
+                    result.writeCount = writeToggles(writer, isRunning);
+                } catch (SQLException e) {
+                    writerException[0] = e;
+                }
+            });
+            writerThread.start();
+            result.readLatenciesNs = read(reader);
+            isRunning.set(false);
+            writerThread.join();
+            if (writerException[0] != null) throw writerException[0];
+            return result;
+        } finally {
+            if (reader != writer) reader.close();
+            writer.close();
+        }
+    }
+
+    private static Connection open(File file, boolean isWriteAheadLoggingEnabled) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        execute(connection, "PRAGMA busy_timeout=2500");
+        // The default journal mode and sync mode of the framework.
+        execute(connection, "PRAGMA journal_mode=" + (isWriteAheadLoggingEnabled ? "WAL" : "TRUNCATE"));
+        execute(connection, "PRAGMA synchronous=FULL");
+        execute(connection, "PRAGMA recursive_triggers=ON");
+        return connection;
+    }
+
+    /**
+     * Create a team with MEMBER_COUNT members, MEETING_COUNT finished meetings, and one meeting in progress.
+     */
+    private static void createMeetings(Connection connection) throws SQLException {
+        for (String sql : ScrumChatterDatabase.getCreateStatements()) {
+            execute(connection, sql);
+        }
+        connection.setAutoCommit(false);
+        execute(connection, "INSERT INTO " + TeamColumns.TABLE_NAME + " VALUES (1, 'Team A')");
+        for (int i = 1; i <= MEMBER_COUNT; i++) {
+            execute(connection, "INSERT INTO " + MemberColumns.TABLE_NAME + " (" + MemberColumns._ID + ", " + MemberColumns.NAME + ", "
+                    + MemberColumns.TEAM_ID + ", " + MemberColumns.DELETED + ") VALUES (" + i + ", 'Member " + i + "', 1, 0)");
+        }
+        for (int i = 1; i <= MEETING_ID; i++) {
+            boolean isFinished = i <= MEETING_COUNT;
+            execute(connection, "INSERT INTO " + MeetingColumns.TABLE_NAME + " (" + MeetingColumns._ID + ", " + MeetingColumns.MEETING_DATE + ", "
+                    + MeetingColumns.TOTAL_DURATION + ", " + MeetingColumns.STATE + ", " + MeetingColumns.TEAM_ID + ") VALUES ("
+                    + i + ", " + i * 86400000L + ", 600, " + (isFinished ? MeetingColumns.State.FINISHED : MeetingColumns.State.IN_PROGRESS).ordinal() + ", 1)");
+            for (int j = 1; j <= MEMBER_COUNT; j++) {
+                execute(connection, "INSERT INTO " + MeetingMemberColumns.TABLE_NAME + " (" + MeetingMemberColumns.MEETING_ID + ", "
+                        + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ") VALUES (" + i + ", " + j + ", "
+                        + (isFinished ? 60 : 0) + ")");
+            }
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    /**
+     * Write toggles in the meeting in progress, as the session does: each toggle ends a turn and starts the next one, in one
+     * transaction.
+     *
+     * @return the number of toggles written.
+     */
+    private static int writeToggles(Connection connection, AtomicBoolean isRunning) throws SQLException {
+        PreparedStatement stopTalking = connection.prepareStatement(ScrumChatterProvider.SQL_INSERT_STOP_TALKING);
+        PreparedStatement startTalking = connection.prepareStatement(SQL_START_TALKING);
+        int count = 0;
+        while (isRunning.get()) {
+            long now = System.currentTimeMillis();
+            synchronized (connection) {
+                connection.setAutoCommit(false);
+                stopTalking.setLong(1, now);
+                stopTalking.setLong(2, MEETING_ID);
+                stopTalking.executeUpdate();
+                startTalking.setLong(1, now);
+                startTalking.setLong(2, MEETING_ID);
+                startTalking.setLong(3, count % MEMBER_COUNT + 1);
+                startTalking.executeUpdate();
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+            count++;
+        }
+        stopTalking.close();
+        startTalking.close();
+        return count;
+    }
+
+    /**
+     * Run the queries of the meeting screen for DURATION_MS. The queries wait for the writer, if it's using the same connection.
+     *
+     * @return the latencies of the queries, sorted.
+     */
+    private static long[] read(Connection connection) throws SQLException {
+        PreparedStatement meetingMembers = connection.prepareStatement(SQL_SELECT_MEETING_MEMBERS);
+        PreparedStatement memberStats = connection.prepareStatement(SQL_SELECT_MEMBER_STATS);
+        long[] latencies = new long[1024];
+        int count = 0;
+        long end = System.currentTimeMillis() + DURATION_MS;
+        while (System.currentTimeMillis() < end) {
+            PreparedStatement statement = count % 2 == 0 ? meetingMembers : memberStats;
+            long start = System.nanoTime();
+            int rows;
+            synchronized (connection) {
+                if (statement == meetingMembers) statement.setLong(1, MEETING_ID);
+                rows = countRows(statement);
+            }
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = System.nanoTime() - start;
+            assertEquals(MEMBER_COUNT, rows);
+        }
+        meetingMembers.close();
+        memberStats.close();
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static int countRows(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            int rows = 0;
+            while (resultSet.next()) rows++;
+            return rows;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 Carmen Alvarez
+ * <p/>
+ * This file is part of Scrum Chatter.
+ * <p/>
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the cost of the frequent writes with the statements of {@link StatementCache}, and with the statements which
+ * SQLiteDatabase.insert() and update() build for the same writes.
+ *
+ * SQLiteDatabase.insert() and update() build the sql from the ContentValues, and bind the values. The framework keeps 25
+ * compiled statements per connection, keyed by sql: the statement is only compiled again when the sql isn't in this cache
+ * anymore, which is the case when more than 25 different statements are executed in between.
+ */
+public class StatementCacheBenchmark {
+
+    private static final int MEETING_COUNT = 100;
+    private static final int MEMBER_COUNT = 10;
+    private static final long MEETING_ID = 1;
+    private static final int WARM_UP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 50000;
+    private static final int FRAMEWORK_CACHE_SIZE = 25;
+
+    private static final String SQL_SELECT_MEETING_TEAM_ID = "SELECT " + MeetingColumns.TEAM_ID + " FROM " + MeetingColumns.TABLE_NAME
+            + " WHERE " + MeetingColumns._ID + "=?";
+
+    // The results of all the tests, written to one report.
+    private static final List<String> RESULTS = new ArrayList<>();
+
+    private Connection mConnection;
+    // The statements compiled by the framework, by sql.
+    private final Map<String, PreparedStatement> mFrameworkCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= FRAMEWORK_CACHE_SIZE) return false;
+            close(eldest.getValue());
+            return true;
+        }
+    };
+
+    private interface Write {
+        /**
+         * @param id the meeting or the member to write.
+         * @return the number of rows changed.
+         */
+        int execute(long id, long time) throws SQLException;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        Benchmarks.assumeEnabled();
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            for (String sql : ScrumChatterDatabase.getCreateStatements()) {
+                statement.execute(sql);
+            }
+            statement.execute("INSERT INTO " + TeamColumns.TABLE_NAME + " VALUES (1, 'Team A')");
+            for (int i = 1; i <= MEETING_COUNT; i++) {
+                statement.execute("INSERT INTO " + MeetingColumns.TABLE_NAME + " (" + MeetingColumns._ID + ", " + MeetingColumns.TEAM_ID + ") VALUES (" + i + ", 1)");
+            }
+            for (int i = 1; i <= MEMBER_COUNT; i++) {
+                statement.execute("INSERT INTO " + MemberColumns.TABLE_NAME + " (" + MemberColumns._ID + ", " + MemberColumns.NAME + ", "
+                        + MemberColumns.TEAM_ID + ", " + MemberColumns.DELETED + ") VALUES (" + i + ", 'Member " + i + "', 1, 0)");
+                statement.execute("INSERT INTO " + MeetingMemberColumns.TABLE_NAME + " (" + MeetingMemberColumns.MEETING_ID + ", "
+                        + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ") VALUES (" + MEETING_ID + ", " + i + ", 0)");
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (mConnection == null) return;
+        for (PreparedStatement statement : mFrameworkCache.values()) {
+            statement.close();
+        }
+        mConnection.close();
+    }
+
+    @AfterClass
+    public static void report() throws IOException {
+        if (!RESULTS.isEmpty()) Benchmarks.report(StatementCacheBenchmark.class, RESULTS);
+    }
+
+    @Test
+    public void testSaveMeeting() throws SQLException {
+        // One meeting is saved repeatedly: the framework finds its statement in its cache.
+        String sameMeeting = measure(this::updateWithContentValues, MEETING_COUNT, 1);
+        // The meetings are saved in turn: the framework compiles each statement again.
+        String manyMeetings = measure(this::updateWithContentValues, MEETING_COUNT, MEETING_COUNT);
+        PreparedStatement cachedStatement = mConnection.prepareStatement(ScrumChatterProvider.SQL_UPDATE_MEETING);
+        String statementCache = measure((meetingId, date) -> {
+            cachedStatement.setLong(1, MeetingColumns.State.IN_PROGRESS.ordinal());
+            cachedStatement.setLong(2, date);
+            cachedStatement.setLong(3, 60);
+            cachedStatement.setLong(4, meetingId);
+            int rows = cachedStatement.executeUpdate();
+            cachedStatement.clearParameters();
+            return rows;
+        }, MEETING_COUNT, MEETING_COUNT);
+        cachedStatement.close();
+        RESULTS.add("Save a meeting:");
+        RESULTS.add("update(), same meeting:  " + sameMeeting);
+        RESULTS.add("update(), " + MEETING_COUNT + " meetings:  " + manyMeetings);
+        RESULTS.add("StatementCache:          " + statementCache);
+    }
+
+    @Test
+    public void testWriteTalkState() throws SQLException {
+        // Each toggle ends the turn of a member, and starts the next one, as MeetingSession writes it.
+        String applyBatch = measure(this::writeTalkStateWithContentValues, MEMBER_COUNT, MEMBER_COUNT);
+        PreparedStatement insertTalkSegment = mConnection.prepareStatement(ScrumChatterProvider.SQL_INSERT_TALK_SEGMENT);
+        PreparedStatement updateTalkStartTime = mConnection.prepareStatement(ScrumChatterProvider.SQL_UPDATE_TALK_START_TIME);
+        String statementCache = measure((memberId, time) -> {
+            insertTalkSegment.setLong(1, MEETING_ID);
+            insertTalkSegment.setLong(2, memberId);
+            insertTalkSegment.setLong(3, time - 1000);
+            insertTalkSegment.setLong(4, time);
+            insertTalkSegment.executeUpdate();
+            insertTalkSegment.clearParameters();
+            updateTalkStartTime.setLong(1, time);
+            updateTalkStartTime.setLong(2, MEETING_ID);
+            updateTalkStartTime.setLong(3, memberId % MEMBER_COUNT + 1);
+            int rows = updateTalkStartTime.executeUpdate();
+            updateTalkStartTime.clearParameters();
+            return rows;
+        }, MEMBER_COUNT, MEMBER_COUNT);
+        insertTalkSegment.close();
+        updateTalkStartTime.close();
+        RESULTS.add("Write a toggle:");
+        RESULTS.add("applyBatch():            " + applyBatch);
+        RESULTS.add("write_talk_state:        " + statementCache);
+    }
+
+    /**
+     * What SQLiteDatabase.update() does, for the values saved by Meeting.
+     */
+    private int updateWithContentValues(long meetingId, long date) throws SQLException {
+        Map<String, Object> values = new HashMap<>();
+        values.put(MeetingColumns.STATE, MeetingColumns.State.IN_PROGRESS.ordinal());
+        values.put(MeetingColumns.MEETING_DATE, date);
+        values.put(MeetingColumns.TOTAL_DURATION, 60L);
+        return update(MeetingColumns.TABLE_NAME, values, MeetingColumns._ID + "=" + meetingId);
+    }
+
+    /**
+     * What the operations of applyBatch() did for a toggle: the insert of the turn and the update of the next member, with
+     * their ContentValues, and the lookup of the team of the meeting before each of them, to notify it.
+     */
+    private int writeTalkStateWithContentValues(long memberId, long time) throws SQLException {
+        getMeetingTeamId();
+        Map<String, Object> values = new HashMap<>();
+        values.put(TalkSegmentColumns.MEETING_ID, MEETING_ID);
+        values.put(TalkSegmentColumns.MEMBER_ID, memberId);
+        values.put(TalkSegmentColumns.START_TIME, time - 1000);
+        values.put(TalkSegmentColumns.END_TIME, time);
+        insert(TalkSegmentColumns.TABLE_NAME, values);
+        getMeetingTeamId();
+        values = new HashMap<>();
+        values.put(MeetingMemberColumns.TALK_START_TIME, time);
+        return update(MeetingMemberColumns.TABLE_NAME, values, MeetingMemberColumns.MEMBER_ID + "=" + (memberId % MEMBER_COUNT + 1)
+                + " AND " + MeetingMemberColumns.MEETING_ID + "=" + MEETING_ID);
+    }
+
+    private void getMeetingTeamId() throws SQLException {
+        PreparedStatement statement = getFrameworkStatement(SQL_SELECT_MEETING_TEAM_ID);
+        statement.setLong(1, MEETING_ID);
+        ResultSet resultSet = statement.executeQuery();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            assertEquals(true, resultSet.next());
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private void insert(String table, Map<String, Object> values) throws SQLException {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("INSERT INTO ").append(table).append('(');
+        Object[] bindArgs = new Object[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(entry.getKey());
+            bindArgs[i++] = entry.getValue();
+        }
+        sql.append(") VALUES (");
+        for (i = 0; i < bindArgs.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        execute(sql.toString(), bindArgs);
+    }
+
+    private int update(String table, Map<String, Object> values, String whereClause) throws SQLException {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(table).append(" SET ");
+        Object[] bindArgs = new Object[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(entry.getKey()).append("=?");
+            bindArgs[i++] = entry.getValue();
+        }
+        sql.append(" WHERE ").append(whereClause);
+        return execute(sql.toString(), bindArgs);
+    }
+
+    private int execute(String sql, Object[] bindArgs) throws SQLException {
+        PreparedStatement statement = getFrameworkStatement(sql);
+        for (int i = 0; i < bindArgs.length; i++) {
+            statement.setObject(i + 1, bindArgs[i]);
+        }
+        int rows = statement.executeUpdate();
+        statement.clearParameters();
+        return rows;
+    }
+
+    /**
+     * @return the statement for the given sql, from the cache of the framework if it's still there.
+     */
+    private PreparedStatement getFrameworkStatement(String sql) throws SQLException {
+        PreparedStatement statement = mFrameworkCache.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mFrameworkCache.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * @param idCount the writes are done on this many meetings or members, in turn.
+     * @param maxIdCount the number of meetings or members, which are all written during the warm up.
+     * @return the average time and allocated bytes per write.
+     */
+    private static String measure(Write write, int maxIdCount, int idCount) throws SQLException {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            assertEquals(1, write.execute(i % maxIdCount + 1, i * 1000L));
+        }
+        long threadId = Thread.currentThread().getId();
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            write.execute(i % idCount + 1, (WARM_UP_ITERATIONS + i) * 1000L);
+        }
+        long durationNs = System.nanoTime() - start;
+        long bytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+        return durationNs / ITERATIONS + " ns, " + bytes / ITERATIONS + " bytes per write";
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}